@@ -0,0 +1,90 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bookings.BookingService;
+import clients.Client;
+import clients.ExistingClientException;
+
+/**
+ * Looking up clients by email address, for addresses that are and aren't
+ * in the system, and adding a million new clients. There is a client for
+ * every ten bookings to start with.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx3g", "-Djava.awt.headless=true" })
+public class ClientBenchmark {
+	@State(Scope.Thread)
+	public static class Emails {
+		private final String[] found   = new String[1024];
+		private final String[] missing = new String[1024];
+		private int            next;
+
+		@Setup
+		public void setUp(SystemState system) {
+			int clients = SyntheticData.clients().size();
+			for (int i = 0; i < found.length; i++) {
+				// Mixed case, as people type them
+				found[i] = SyntheticData.email((int) ((i * 2654435761L) % clients)).toUpperCase();
+				missing[i] = "nobody" + i + "@example.com";
+			}
+		}
+	}
+
+	// Clients added by each call to create
+	static final int INSERTS = 1_000_000;
+
+	/**
+	 * Counts the clients added, so each one gets a telephone number and
+	 * email no other client has
+	 */
+	@State(Scope.Benchmark)
+	public static class NewClients {
+		private int next;
+	}
+
+	@Benchmark
+	public Client findByEmail(Emails emails) {
+		return Client.findByEmail(emails.found[emails.next++ & 1023]);
+	}
+
+	@Benchmark
+	public Client findByEmailMissing(Emails emails) {
+		return Client.findByEmail(emails.missing[emails.next++ & 1023]);
+	}
+
+	/**
+	 * Adds {@value #INSERTS} clients, each checked for a clash with the
+	 * clients already there. The clients stay in the system, so every call
+	 * adds to a larger one. Adding the first million warms the JIT well
+	 * enough, and skipping a warmup keeps the heap within the fork's.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 2)
+	public Client create(SystemState system, NewClients clients) throws ExistingClientException {
+		Client last = null;
+		for (int i = 0; i < INSERTS; i++) {
+			int n = clients.next++;
+			last = BookingService.addClient("New" + n, "Client" + n, String.format("08%09d", n),
+					"new" + n + "@example.com");
+		}
+		return last;
+	}
+}
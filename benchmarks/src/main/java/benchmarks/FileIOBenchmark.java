@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bookings.Booking;
+import fileio.FileIO;
+
+/**
+ * Saving every booking to a file and loading them back, in the record
+ * format the stores use. Saving forces the file to disk, as the stores do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx3g", "-Djava.awt.headless=true" })
+public class FileIOBenchmark {
+	@State(Scope.Benchmark)
+	public static class Stores {
+		ArrayList<Booking> bookings;
+		String             path;
+
+		@Setup(Level.Trial)
+		public void setUp(SystemState system) {
+			bookings = new ArrayList<Booking>(Booking.allBookings());
+			path = system.dir.resolve("round-trip.bin").toString();
+		}
+	}
+
+	@Benchmark
+	public int roundTrip(Stores stores) throws IOException {
+		Booking.Codec codec = new Booking.Codec();
+		FileIO.saveRecords(stores.path, codec, stores.bookings, stores.bookings.size());
+		int[] count = new int[1];
+		FileIO.loadRecords(stores.path, codec, b -> count[0]++);
+		return count[0];
+	}
+}
@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bookings.Booking;
+import clients.Client;
+import reports.Report;
+
+/**
+ * Writing a report of one client's bookings, and of every booking in a
+ * week, to a file
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx3g", "-Djava.awt.headless=true" })
+public class ReportBenchmark {
+	@State(Scope.Thread)
+	public static class Target {
+		private final Random random = new Random(SystemState.SEED + 2);
+		Path                 file;
+
+		@Setup(Level.Trial)
+		public void setUp(SystemState system) {
+			file = system.dir.resolve("report-" + Thread.currentThread().getId());
+		}
+
+		Client client() {
+			return SyntheticData.clients().get(random.nextInt(SyntheticData.clients().size()));
+		}
+
+		LocalDate week() {
+			return SyntheticData.randomDay(random);
+		}
+
+		/**
+		 * Reports refuse to overwrite a file, so each one is removed
+		 */
+		@TearDown(Level.Invocation)
+		public void delete() throws IOException {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Benchmark
+	public int clientReport(Target target) throws IOException {
+		return Report.write(Booking.findByClient(target.client()), Report.formatFor("text"), target.file);
+	}
+
+	@Benchmark
+	public int weekReport(Target target) throws IOException {
+		LocalDate from = target.week();
+		return Report.write(Booking.findBetween(from, from.plusDays(6)), Report.formatFor("csv"), target.file);
+	}
+}
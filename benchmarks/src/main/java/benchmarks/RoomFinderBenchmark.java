@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bookings.Availability;
+import bookings.BookingRequest;
+import bookings.RoomFinder;
+import rooms.Room;
+
+/**
+ * Finding the best fitting free room, and the next times a room is free,
+ * for random needs on random days
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx3g", "-Djava.awt.headless=true" })
+public class RoomFinderBenchmark {
+	/**
+	 * The needs searched for, taken in turn
+	 */
+	@State(Scope.Thread)
+	public static class Needs {
+		private final BookingRequest[] needs = new BookingRequest[1024];
+		private int                    next;
+
+		@Setup
+		public void setUp(SystemState system) {
+			Random random = new Random(SystemState.SEED + 1);
+			for (int i = 0; i < needs.length; i++) {
+				needs[i] = SyntheticData.randomRequest(random, null);
+			}
+		}
+
+		BookingRequest next() {
+			return needs[next++ & (needs.length - 1)];
+		}
+	}
+
+	@Benchmark
+	public Room bestFit(Needs needs) {
+		BookingRequest r = needs.next();
+		return new RoomFinder().getBestFit(r.getComputers(), r.getBreakoutSeats(), r.hasPrinter(),
+				r.hasSmartboard(), r.getDate(), r.getTime(), r.getHours());
+	}
+
+	@Benchmark
+	public List<Availability> findAvailable(Needs needs) {
+		BookingRequest r = needs.next();
+		return new RoomFinder().findAvailable(r.getComputers(), r.getBreakoutSeats(), r.hasPrinter(),
+				r.hasSmartboard(), r.getDate(), r.getTime(), r.getDate().plusDays(6), r.getHours(), 5);
+	}
+}
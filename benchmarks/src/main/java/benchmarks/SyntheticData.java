@@ -0,0 +1,162 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import bookings.Booking;
+import bookings.BookingRequest;
+import bookings.BookingService;
+import clients.Client;
+
+/**
+ * Fills the Room Booking System with made up rooms, clients and bookings
+ * for the benchmarks. The same seed and size always give the same data.
+ * <p>
+ * Everything is kept in a new temporary folder, set as {@code data.dir}
+ * before any store is loaded, so the real store files are never read or
+ * changed. The folder is deleted when the JVM exits.
+ */
+final class SyntheticData {
+	static final int       ROOMS      = 500;
+	static final LocalDate FIRST_DAY  = LocalDate.of(2030, 1, 1);
+	// Bookings start on the hour between these hours
+	static final int       FIRST_HOUR = 8;
+	static final int       LAST_HOUR  = 17;
+
+	// Bookings made with each call to the booking service, and bookings
+	// per room per day, so that every size is as busy as the others
+	private static final int BATCH            = 10_000;
+	private static final int BOOKINGS_PER_DAY = 2;
+
+	private static Path         dir;
+	private static int          days;
+	private static List<Client> clients;
+
+	private SyntheticData() {
+	}
+
+	/**
+	 * Makes the data, if it hasn't been made already in this JVM. Must be
+	 * called before anything else touches the rooms, clients or bookings.
+	 *
+	 * @param bookings
+	 *            Number of bookings to make, with a client for every ten
+	 * @return The folder the stores are kept in
+	 */
+	static synchronized Path create(int bookings, long seed) throws IOException {
+		if (dir != null) {
+			return dir;
+		}
+
+		dir = Files.createTempDirectory("room-booking-bench");
+		System.setProperty("data.dir", dir.toString());
+		System.setProperty("java.awt.headless", "true");
+		if (System.getProperty("output.level") == null) {
+			System.setProperty("output.level", "ERROR");
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(SyntheticData::delete));
+
+		days = Math.max(30, bookings / (ROOMS * BOOKINGS_PER_DAY));
+		Random random = new Random(seed);
+		addRooms(random);
+		clients = addClients(Math.max(100, bookings / 10));
+		addBookings(random, bookings);
+		return dir;
+	}
+
+	static List<Client> clients() {
+		return clients;
+	}
+
+	/**
+	 * @return How many days from {@link #FIRST_DAY} the bookings are spread
+	 *         over
+	 */
+	static int days() {
+		return days;
+	}
+
+	/**
+	 * Rooms with between 0 and 39 computers and 0 and 9 breakout seats
+	 */
+	private static void addRooms(Random random) throws IOException {
+		for (int i = 1; i <= ROOMS; i++) {
+			try {
+				BookingService.addRoom(i, random.nextInt(40), random.nextInt(10), random.nextInt(3) == 0,
+						random.nextInt(2) == 0);
+			} catch (Exception e) {
+				throw new IOException("Failed making room " + i, e);
+			}
+		}
+	}
+
+	private static List<Client> addClients(int count) throws IOException {
+		ArrayList<Client> made = new ArrayList<Client>(count);
+		for (int i = 0; i < count; i++) {
+			try {
+				made.add(BookingService.addClient("First" + i, "Last" + i, String.format("07%09d", i),
+						email(i)));
+			} catch (Exception e) {
+				throw new IOException("Failed making client " + i, e);
+			}
+		}
+		return made;
+	}
+
+	static String email(int client) {
+		return "client" + client + "@example.com";
+	}
+
+	/**
+	 * Books rooms for random needs and times in batches, until there are
+	 * enough bookings. Needs are kept modest so most requests find a room.
+	 */
+	private static void addBookings(Random random, int count) {
+		int made = 0;
+		while (made < count) {
+			ArrayList<BookingRequest> batch = new ArrayList<BookingRequest>();
+			for (int i = Math.min(BATCH, count - made); i > 0; i--) {
+				batch.add(randomRequest(random, clients.get(random.nextInt(clients.size()))));
+			}
+			for (Booking b : BookingService.bookAll(batch)) {
+				if (b != null) {
+					made++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A request for up to 20 computers and 4 breakout seats, for 1 to 3
+	 * hours on a random day
+	 */
+	static BookingRequest randomRequest(Random random, Client client) {
+		return new BookingRequest(random.nextInt(21), random.nextInt(5), random.nextInt(8) == 0,
+				random.nextInt(8) == 0, randomDay(random), randomTime(random), 1 + random.nextInt(3), client);
+	}
+
+	static LocalDate randomDay(Random random) {
+		return FIRST_DAY.plusDays(random.nextInt(days));
+	}
+
+	static LocalTime randomTime(Random random) {
+		return LocalTime.of(FIRST_HOUR + random.nextInt(LAST_HOUR - FIRST_HOUR + 1), 0);
+	}
+
+	private static void delete() {
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The Room Booking System filled with {@link SyntheticData}, at each of the
+ * sizes benchmarked. Every fork makes its own data in its own folder.
+ */
+@State(Scope.Benchmark)
+public class SystemState {
+	static final long SEED = 42;
+
+	@Param({ "1000", "100000", "1000000" })
+	public int bookings;
+
+	Path dir;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = SyntheticData.create(bookings, SEED);
+	}
+}
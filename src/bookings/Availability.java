@@ -0,0 +1,33 @@
+package bookings;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import rooms.Room;
+
+/**
+ * A room which is free for a booking starting at a certain date and time,
+ * as found by {@link RoomFinder#findAvailable}
+ */
+public final class Availability {
+	private final Room      room;
+	private final LocalDate date;
+	private final LocalTime time;
+
+	Availability(Room room, LocalDate date, LocalTime time) {
+		this.room = room;
+		this.date = date;
+		this.time = time;
+	}
+
+	public Room getRoom() { return this.room; }
+
+	public LocalDate getDate() { return this.date; }
+
+	public LocalTime getTime() { return this.time; }
+
+	@Override
+	public String toString() {
+		return "Room " + this.room + " on " + this.date + " at " + this.time;
+	}
+}
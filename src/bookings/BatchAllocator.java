@@ -0,0 +1,170 @@
+package bookings;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import rooms.Room;
+import rooms.RoomCatalog;
+
+/**
+ * Places a whole batch of booking requests at once, rather than giving each
+ * request the best room left for it in the order they arrive.
+ * <p>
+ * Requests are split into groups whose times overlap, as requests in
+ * different groups can never want the same room at the same time. The
+ * groups are placed in parallel on the common fork-join pool. Within a
+ * group the requests with the fewest suitable rooms are placed first, each
+ * in its best fitting room. When a request has nowhere left to go, the
+ * requests in its way are moved to other suitable rooms where possible, the
+ * same way an augmenting path grows a bipartite matching.
+ * <p>
+ * Nothing is booked while the batch is placed, the bookings and schedules
+ * are only read.
+ */
+final class BatchAllocator {
+	private static final Comparator<Item> MOST_CONSTRAINED = Comparator
+			.comparingInt((Item i) -> i.candidates.size()).thenComparingLong(i -> i.start - i.end)
+			.thenComparingInt(i -> i.index);
+
+	// One request, with the rooms that suit it and are free at its time
+	private static final class Item {
+		final int            index;
+		final BookingRequest request;
+		final long           start;
+		final long           end;
+		List<Room>           candidates;
+		Room                 room;
+
+		Item(int index, BookingRequest request) {
+			this.index = index;
+			this.request = request;
+			this.start = Booking.toMinute(request.getDate(), request.getTime());
+			this.end = start + request.getHours() * 60L;
+		}
+
+		boolean overlaps(Item other) {
+			return start < other.end && other.start < end;
+		}
+	}
+
+	// Requests whose times overlap, directly or through each other
+	private static final class Group {
+		final ArrayList<Item>                   items  = new ArrayList<Item>();
+		final HashMap<Integer, ArrayList<Item>> placed = new HashMap<Integer, ArrayList<Item>>();
+
+		void place() {
+			for (Item i : items) {
+				BookingRequest r = i.request;
+				i.candidates = RoomCatalog.findAll(r.getComputers(), r.getBreakoutSeats(), r.hasPrinter(),
+						r.hasSmartboard(),
+						room -> SlotCalendar.isFree(room.getRoomNumber(), r.getDate(), r.getTime(), r.getHours()));
+			}
+
+			items.sort(MOST_CONSTRAINED);
+			for (Item i : items) {
+				HashSet<Item> moved = new HashSet<Item>();
+				moved.add(i);
+				place(i, moved);
+			}
+		}
+
+		/**
+		 * Places a request in the best fitting room it has that is free, or
+		 * failing that, moves one request out of the way of it
+		 *
+		 * @param moved
+		 *            Requests already moved while placing this one, which
+		 *            aren't moved again
+		 * @return True if the request was placed
+		 */
+		private boolean place(Item item, HashSet<Item> moved) {
+			for (Room room : item.candidates) {
+				if (blocking(room, item).isEmpty()) {
+					assign(item, room);
+					return true;
+				}
+			}
+
+			for (Room room : item.candidates) {
+				List<Item> blocking = blocking(room, item);
+				if (blocking.size() != 1 || !moved.add(blocking.get(0))) {
+					continue;
+				}
+
+				Item other = blocking.get(0);
+				unassign(other);
+				assign(item, room);
+				if (place(other, moved)) {
+					return true;
+				}
+				unassign(item);
+				assign(other, room);
+			}
+
+			return false;
+		}
+
+		/**
+		 * @return The requests placed in a room which overlap the given one
+		 */
+		private List<Item> blocking(Room room, Item item) {
+			ArrayList<Item> found = new ArrayList<Item>();
+			for (Item other : placed.getOrDefault(room.getRoomNumber(), new ArrayList<Item>())) {
+				if (other.overlaps(item)) {
+					found.add(other);
+				}
+			}
+			return found;
+		}
+
+		private void assign(Item item, Room room) {
+			item.room = room;
+			placed.computeIfAbsent(room.getRoomNumber(), k -> new ArrayList<Item>()).add(item);
+		}
+
+		private void unassign(Item item) {
+			placed.get(item.room.getRoomNumber()).remove(item);
+			item.room = null;
+		}
+	}
+
+	private BatchAllocator() {
+	}
+
+	/**
+	 * Finds a room for each request in a batch
+	 *
+	 * @return The room picked for each request, in the same order as the
+	 *         requests, with null for any request that couldn't be placed
+	 */
+	static Room[] allocate(List<BookingRequest> requests) {
+		ArrayList<Item> items = new ArrayList<Item>(requests.size());
+		for (int i = 0; i < requests.size(); i++) {
+			items.add(new Item(i, requests.get(i)));
+		}
+		items.sort(Comparator.comparingLong(i -> i.start));
+
+		ArrayList<Group> groups = new ArrayList<Group>();
+		Group group = null;
+		long groupEnd = Long.MIN_VALUE;
+		for (Item i : items) {
+			if (group == null || i.start >= groupEnd) {
+				group = new Group();
+				groups.add(group);
+			}
+			group.items.add(i);
+			groupEnd = Math.max(groupEnd, i.end);
+		}
+
+		groups.parallelStream().forEach(Group::place);
+
+		Room[] rooms = new Room[requests.size()];
+		for (Item i : items) {
+			rooms[i.index] = i.room;
+		}
+		return rooms;
+	}
+}
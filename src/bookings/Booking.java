@@ -1,85 +1,525 @@
 package bookings;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 import javax.swing.JOptionPane;
 
 import clients.Client;
 import fileio.FileIO;
+import fileio.RecordCodec;
+import metrics.BookingEvent;
+import metrics.Metrics;
+import metrics.Timer;
 import rooms.Room;
 import ui.Input;
 import ui.Output;
 
 public class Booking implements Serializable {
 	private static final long               serialVersionUID = 1L;
-	private static final String             PATH             = "bookings.bin";
-	private static HashMap<String, Booking> bookings;
-	private static int                      bookingCount     = 0;
+	private static final String             PATH             = FileIO.dataPath("bookings.bin");
+	private static final String             MAPPED_PATH      = FileIO.dataPath("bookings.map");
+	private static Map<String, Booking>     bookings;
+	private static BookingStore             store;
+	// The store the slots of bookings are in, once a mapped store is loaded
+	private static MappedBookingStore       mapped;
+	private static final AtomicLong         nextID           = new AtomicLong();
+	private static final String             ID_PREFIX        = "B";
+	private static final List<BookingListener> listeners = new CopyOnWriteArrayList<BookingListener>();
+	private static final int                MINUTES_PER_DAY  = 24 * 60;
+	// Returned by fromSlot for a booking without a slot
+	private static final long               NO_SLOT          = Long.MIN_VALUE;
+	// How far ahead to look, and how many times to offer, when the time
+	// asked for is taken
+	private static final int                SEARCH_DAYS      = 90;
+	private static final int                SUGGESTIONS      = 5;
+	/**
+	 * Longest booking that can be made, in hours
+	 */
+	public static final int                 MAX_HOURS        = 7 * 24;
+	private static final Timer              LOAD             = Metrics.timer("load.bookings");
+	private static final Timer              CREATE           = Metrics.timer("booking.create");
+	private static final Timer              BATCH            = Metrics.timer("booking.batch");
+	private static final Timer              CANCEL           = Metrics.timer("booking.cancel");
+	private static final Timer              CANCEL_BATCH     = Metrics.timer("booking.cancelBatch");
+	// Bookings that found no room, and rooms found to have been taken by
+	// the time they were locked
+	private static final LongAdder          NO_ROOM          = Metrics.counter("booking.noRoom");
+	private static final LongAdder          RETRIES          = Metrics.counter("booking.retry");
 
-	private Client    client;
+	// The room and client are kept as their number and ID, and looked up
+	// when they are needed, so that every booking shares the same Room and
+	// Client objects as the rest of the system.
+	private int       clientID;
 	private String    bookingID;
-	private Room      room;
+	private int       roomNumber;
 	private LocalDate date;
 	private LocalTime startTime;
 	private int       length;
+	// Position of the booking's slot in the MappedBookingStore plus one, or
+	// 0 if it doesn't have one. While it has a slot, everything but the ID
+	// is read from the slot rather than kept on the heap.
+	transient volatile int slot;
 
 	static {
-		bookings = new HashMap<String, Booking>();
+		long start = System.nanoTime();
+		bookings = new ConcurrentHashMap<String, Booking>();
+		JournalBookingStore journal = new JournalBookingStore(PATH, bookings, nextID::get, Booking::unpack);
+		store = journal;
+		if ("mapped".equals(System.getProperty("bookings.store"))) {
+			store = new MappedBookingStore(MAPPED_PATH, bookings, nextID::get, journal);
+		}
 
 		try {
-			unpack(FileIO.load(PATH));
+			if (store == journal && MappedBookingStore.exists(MAPPED_PATH)) {
+				// The mapped store was used last time, so it has the latest
+				// bookings
+				nextID.accumulateAndGet(MappedBookingStore.handBack(MAPPED_PATH, bookings, journal), Math::max);
+				journal.compactSoon();
+			} else {
+				nextID.accumulateAndGet(store.load(), Math::max);
+			}
 		} catch (Exception e) {
-
+			Output.consoleError("Something went wrong loading bookings");
+			e.printStackTrace();
 		}
+		
+		RoomSchedule.rebuild(bookings.values());
+		SlotCalendar.rebuild(bookings.values());
+		BookingIndex.rebuild(bookings.values());
+		LOAD.record(start);
 	}
 	
-	public static void cancelBooking(String ID) {
-		bookings.remove(ID);
+	/**
+	 * Builds a booking loaded from a store
+	 */
+	Booking(String bookingID, int roomNumber, int clientID, LocalDate date, LocalTime time, int length) {
+		this.bookingID = bookingID;
+		this.roomNumber = roomNumber;
+		this.clientID = clientID;
+		this.date = date;
+		this.startTime = time;
+		this.length = length;
+	}
+
+	/**
+	 * Builds a booking loaded from a slot of the mapped store, which the
+	 * rest of it is read from
+	 */
+	Booking(String bookingID, int slot) {
+		this.bookingID = bookingID;
+		this.slot = slot;
+	}
+	
+	/**
+	 * Cancels a booking
+	 * 
+	 * @return True if the booking was cancelled, false if there is no
+	 *         booking with that ID
+	 */
+	public static boolean cancelBooking(String ID) {
+		long start = System.nanoTime();
+		BookingEvent event = new BookingEvent();
+		event.begin();
+		Booking b = null;
+		try {
+			b = cancel(ID);
+			return b != null;
+		} finally {
+			CANCEL.record(start);
+			event.finish("cancel", ID, b == null ? -1 : b.getRoomNumber(), b == null ? -1 : b.getClientID());
+		}
+	}
+
+	/**
+	 * @return The booking cancelled, or null if there is no booking with
+	 *         the ID or it couldn't be removed from the store
+	 */
+	private static Booking cancel(String ID) {
+		Booking found = ID == null ? null : bookings.get(ID);
+		if (found == null) {
+			return null;
+		}
+
+		ReentrantLock lock = RoomLocks.of(found.getRoomNumber());
+		lock.lock();
+		try {
+			Booking b = store.remove(ID);
+			if (b == null) {
+				return null;
+			}
+
+			RoomSchedule.remove(b);
+			SlotCalendar.remove(b);
+			BookingIndex.remove(b);
+			for (BookingListener l : listeners) {
+				l.cancelled(b);
+			}
+			return b;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Cancels every booking that matches, such as all the bookings for a
+	 * room that is closing, saving the cancellations to the store in one
+	 * write rather than one each
+	 * 
+	 * @param which
+	 *            Picks the bookings to cancel
+	 * @return The bookings cancelled
+	 */
+	public static List<Booking> cancelBookings(Predicate<Booking> which) {
+		long start = System.nanoTime();
+		HashMap<String, Booking> found = new HashMap<String, Booking>();
+		HashSet<Integer> roomNumbers = new HashSet<Integer>();
+		for (Booking b : bookings.values()) {
+			if (which.test(b)) {
+				found.put(b.bookingID, b);
+				roomNumbers.add(b.getRoomNumber());
+			}
+		}
+
+		List<Booking> cancelled = new ArrayList<Booking>();
+		List<ReentrantLock> locks = RoomLocks.lockAll(roomNumbers);
 		try {
-			save();
+			// Bookings cancelled by someone else before the rooms were
+			// locked are skipped by the store
+			cancelled = store.removeAll(found.keySet());
+			for (Booking b : cancelled) {
+				BookingEvent event = new BookingEvent();
+				event.begin();
+				RoomSchedule.remove(b);
+				SlotCalendar.remove(b);
+				BookingIndex.remove(b);
+				for (BookingListener l : listeners) {
+					l.cancelled(b);
+				}
+				event.finish("cancel", b.bookingID, b.getRoomNumber(), b.getClientID());
+			}
 		} catch (IOException e) {
+			Output.consoleError("Failed trying to save Bookings");
 			e.printStackTrace();
+		} finally {
+			RoomLocks.unlockAll(locks);
+		}
+
+		CANCEL_BATCH.record(start);
+		Output.console("Cancelled %s bookings", cancelled.size());
+		return cancelled;
+	}
+
+	/**
+	 * Books the best fitting room for the given requirements
+	 * 
+	 * @param numComputers
+	 *            Minimum number of computers
+	 * @param breakoutSeats
+	 *            Minimum number of breakout seats
+	 * @param hasPrinter
+	 *            Whether the room must have a printer
+	 * @param hasSmartboard
+	 *            Whether the room must have a smartboard
+	 * @param date
+	 *            Date of the booking
+	 * @param time
+	 *            Start time of the booking
+	 * @param hours
+	 *            Length of the booking in hours, at least 1
+	 * @param client
+	 *            Client the booking is for, can be null
+	 * @return The booking made
+	 * @throws NoRoomFoundException
+	 *             If no suitable room is free at that time
+	 * @throws IllegalArgumentException
+	 *             If a number is out of range or the date or time is missing
+	 * @throws UncheckedIOException
+	 *             If the booking couldn't be saved, in which case it isn't
+	 *             made
+	 */
+	public static Booking book(int numComputers, int breakoutSeats, boolean hasPrinter, boolean hasSmartboard,
+			LocalDate date, LocalTime time, int hours, Client client) throws NoRoomFoundException {
+		check(numComputers, breakoutSeats, date, time, hours);
+
+		long start = System.nanoTime();
+		BookingEvent event = new BookingEvent();
+		event.begin();
+		Booking b = null;
+		try {
+			b = allocate(numComputers, breakoutSeats, hasPrinter, hasSmartboard, date, time, hours, client);
+			return b;
+		} finally {
+			made(start, event, b, client);
 		}
 	}
 
-	private Booking(int numComputers, int breakoutSeats, boolean hasPrinter, boolean hasSmartboard, LocalDate date, LocalTime time, int hours, Client client)
-			throws NoRoomFoundException {
+	/**
+	 * Books a room found by {@link RoomFinder#findAvailable}, if it is still
+	 * free
+	 * 
+	 * @param hours
+	 *            Length of the booking in hours, at least 1
+	 * @param client
+	 *            Client the booking is for, can be null
+	 * @return The booking made
+	 * @throws NoRoomFoundException
+	 *             If the room has been booked since it was found
+	 * @throws UncheckedIOException
+	 *             If the booking couldn't be saved, in which case it isn't
+	 *             made
+	 */
+	public static Booking book(Availability a, int hours, Client client) throws NoRoomFoundException {
+		check(a.getDate(), a.getTime(), hours);
+
+		long start = System.nanoTime();
+		BookingEvent event = new BookingEvent();
+		event.begin();
+		Booking b = null;
+		int roomNumber = a.getRoom().getRoomNumber();
+		ReentrantLock lock = RoomLocks.of(roomNumber);
+		lock.lock();
+		try {
+			if (!RoomSchedule.isFree(roomNumber, a.getDate(), a.getTime(), hours)) {
+				throw new NoRoomFoundException("Room " + roomNumber + " has just been booked by someone else");
+			}
 
+			b = new Booking(a.getRoom(), a.getDate(), a.getTime(), hours, client);
+			insert(b);
+			return b;
+		} finally {
+			lock.unlock();
+			made(start, event, b, client);
+		}
+	}
+
+	/**
+	 * Records the time taken to make a booking, or to fail to
+	 *
+	 * @param b
+	 *            The booking made, or null if none was
+	 */
+	private static void made(long start, BookingEvent event, Booking b, Client client) {
+		CREATE.record(start);
+		if (b == null) {
+			NO_ROOM.increment();
+		}
+		event.finish("book", b == null ? null : b.bookingID, b == null ? -1 : b.getRoomNumber(),
+				client == null ? -1 : client.getID());
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If a booking could never be made for the requirements
+	 */
+	static void check(int numComputers, int breakoutSeats, LocalDate date, LocalTime time, int hours) {
+		if (numComputers < 0 || breakoutSeats < 0) {
+			throw new IllegalArgumentException("Computers and breakout seats can't be negative");
+		}
+		check(date, time, hours);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If a booking could never be made for the date, time and
+	 *             length
+	 */
+	static void check(LocalDate date, LocalTime time, int hours) {
+		if (date == null || time == null) {
+			throw new IllegalArgumentException("A booking needs a date and a start time");
+		}
+		if (hours < 1 || hours > MAX_HOURS) {
+			throw new IllegalArgumentException("A booking must be between 1 and " + MAX_HOURS + " hours long");
+		}
+	}
+
+	/**
+	 * Books the best fitting room for the given parameters. Rooms are found
+	 * without locking, then the room is locked and checked again before it
+	 * is booked. If another booking took the room in the meantime, the next
+	 * best room is found instead.
+	 * 
+	 * @throws NoRoomFoundException
+	 *             If no suitable room is free
+	 */
+	private static Booking allocate(int numComputers, int breakoutSeats, boolean hasPrinter, boolean hasSmartboard,
+			LocalDate date, LocalTime time, int hours, Client client) throws NoRoomFoundException {
+		while (true) {
+			Room room = bestFit(numComputers, breakoutSeats, hasPrinter, hasSmartboard, date, time, hours);
+
+			ReentrantLock lock = RoomLocks.of(room.getRoomNumber());
+			lock.lock();
+			try {
+				if (RoomSchedule.isFree(room.getRoomNumber(), date, time, hours)) {
+					Booking b = new Booking(room, date, time, hours, client);
+					insert(b);
+					return b;
+				}
+			} finally {
+				lock.unlock();
+			}
+			RETRIES.increment();
+		}
+	}
+
+	/**
+	 * Builds a new booking for a room that has already been picked. The
+	 * booking isn't added to the schedules or saved.
+	 */
+	private Booking(Room room, LocalDate date, LocalTime time, int hours, Client client) {
+		this.date = date;
+		this.startTime = time;
+		this.length = hours;
+		this.roomNumber = room.getRoomNumber();
+		this.clientID = client == null ? -1 : client.getID();
+		this.bookingID = generateBookingID();
+	}
+
+	/**
+	 * Saves a new booking, then adds it to the schedules. The booking's
+	 * room must be locked.
+	 * 
+	 * @throws UncheckedIOException
+	 *             If the booking couldn't be saved, in which case it isn't
+	 *             made
+	 */
+	private static void insert(Booking b) {
+		try {
+			store.put(b);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed trying to save booking " + b.bookingID, e);
+		}
+		RoomSchedule.add(b);
+		SlotCalendar.add(b);
+		BookingIndex.add(b);
+		for (BookingListener l : listeners) {
+			l.booked(b);
+		}
+	}
+
+	private static Room bestFit(int numComputers, int breakoutSeats, boolean hasPrinter, boolean hasSmartboard,
+			LocalDate date, LocalTime time, int hours) throws NoRoomFoundException {
 		RoomFinder rf = new RoomFinder();
-		this.room = rf.getBestFit(numComputers, breakoutSeats, hasPrinter,
+		Room room = rf.getBestFit(numComputers, breakoutSeats, hasPrinter,
 				hasSmartboard, date, time, hours);
 
 		if (room == null) {
 			throw new NoRoomFoundException(
 					"No room found for the given parameters");
 		}
+		return room;
+	}
 
-		this.date = date;
-		this.startTime = time;
-		this.length = hours;
-		this.client = client;
-		this.bookingID = generateBookingID();
+	/**
+	 * Books a whole batch of requests at once. The rooms are picked for all
+	 * of the requests together by the {@link BatchAllocator}, so that the
+	 * requests with the fewest suitable rooms aren't left without one, and
+	 * all of the new bookings are saved with a single write to the store.
+	 * 
+	 * @param requests
+	 *            The requirements of each booking
+	 * @return The bookings made, in the same order as the requests, with
+	 *         null for any request that no room could be found for
+	 * @throws UncheckedIOException
+	 *             If the batch couldn't be saved, in which case none of it
+	 *             is booked
+	 */
+	public static List<Booking> newBookings(List<BookingRequest> requests) {
+		long start = System.nanoTime();
+		Room[] rooms = BatchAllocator.allocate(requests);
+		ArrayList<Booking> made = new ArrayList<Booking>(requests.size());
+		ArrayList<Booking> batch = new ArrayList<Booking>();
+		ArrayList<Integer> taken = new ArrayList<Integer>();
 
-		bookings.put(this.bookingID, this);
+		HashSet<Integer> roomNumbers = new HashSet<Integer>();
+		for (Room room : rooms) {
+			if (room != null) {
+				roomNumbers.add(room.getRoomNumber());
+			}
+		}
 
+		// Every room in the batch is locked while it is booked, and any room
+		// booked by someone else since the batch was placed is found again
+		// afterwards, one request at a time
+		List<ReentrantLock> locks = RoomLocks.lockAll(roomNumbers);
 		try {
-			save();
-		} catch (IOException e) {
-			Output.consoleError("Failed trying to save Bookings");
+			for (int i = 0; i < rooms.length; i++) {
+				BookingRequest r = requests.get(i);
+				if (rooms[i] == null) {
+					made.add(null);
+				} else if (!RoomSchedule.isFree(rooms[i].getRoomNumber(), r.getDate(), r.getTime(), r.getHours())) {
+					made.add(null);
+					taken.add(i);
+				} else {
+					BookingEvent event = new BookingEvent();
+					event.begin();
+					Booking b = new Booking(rooms[i], r.getDate(), r.getTime(), r.getHours(), r.getClient());
+					// Scheduled straight away, so later requests in the
+					// batch see the room as taken, and taken off again if
+					// the batch can't be saved
+					RoomSchedule.add(b);
+					SlotCalendar.add(b);
+					BookingIndex.add(b);
+					made.add(b);
+					batch.add(b);
+					event.finish("batch", b.bookingID, b.getRoomNumber(), b.getClientID());
+				}
+			}
+
+			try {
+				store.putAll(batch);
+			} catch (IOException e) {
+				for (Booking b : batch) {
+					RoomSchedule.remove(b);
+					SlotCalendar.remove(b);
+					BookingIndex.remove(b);
+				}
+				throw new UncheckedIOException("Failed trying to save " + batch.size() + " bookings", e);
+			}
+			for (Booking b : batch) {
+				for (BookingListener l : listeners) {
+					l.booked(b);
+				}
+			}
+		} finally {
+			RoomLocks.unlockAll(locks);
 		}
+
+		for (int i : taken) {
+			BookingRequest r = requests.get(i);
+			try {
+				made.set(i, allocate(r.getComputers(), r.getBreakoutSeats(), r.hasPrinter(), r.hasSmartboard(),
+						r.getDate(), r.getTime(), r.getHours(), r.getClient()));
+			} catch (NoRoomFoundException e) {
+				// Left as null
+			}
+		}
+
+		BATCH.record(start);
+		Output.console("Booked %s of %s requests", made.stream().filter(b -> b != null).count(), requests.size());
+		return made;
 	}
-	
-	//placeholder for future UI implementation
-	/*public static Booking newBooking(int comps, int seats, boolean printer, boolean smartboard, Client cl) {
-		Booking b = new Booking(comps, seats, printer, smartboard, date, time, len, cl);
-		return null;
-	}*/
 
 	public static Booking newBooking() {
 		Client client = null;
@@ -127,31 +567,15 @@ public class Booking implements Serializable {
 			}
 			
 			hours = Input.positiveNumberInput(
-					"How many hours is this booking required for? (Min. 1 hour)",
+					"How many hours is this booking required for? (Min. 1 hour, max. " + MAX_HOURS + " hours)",
 					"Must be => 0");
 			if(hours == -1) {
 				return null;
 			}
 
-			Collection<Client> temp = Client.getClients();
-			Object options[] = new Object[temp.size() + 1];
-			
-			int i = 0;
-			for(Client c : temp) {
-				options[i] = c;
-				i++;
-			}
-			
-			options[temp.size()] = "Add New Client"; 
-			
-			Object selection = JOptionPane.showInputDialog(null,
-					"Enter Client", "Enter Client",
-					JOptionPane.INFORMATION_MESSAGE, null, options, options[0]);
-
-			if(selection instanceof Client) {
-				client = (Client) selection;
-			} else {
-				client = Client.addClient();
+			client = Client.selectClient(true);
+			if(client == null) {
+				return null;
 			}
 			
 			str = "Number of computers: " + numComputers + "\n"
@@ -163,55 +587,262 @@ public class Booking implements Serializable {
 		} while (!Input.getYesNo("Are these details correct?\n" + str));
 
 		try {
-			Booking b = new Booking(numComputers, numBreakoutSeats, hasPrinter,
+			Booking b = book(numComputers, numBreakoutSeats, hasPrinter,
 					hasSmartboard, date, time, hours, client);
 			Output.console("Booking " + b.bookingID + " created");
 			return b;
 		} catch (NoRoomFoundException e) {
+			return offerAlternatives(numComputers, numBreakoutSeats, hasPrinter, hasSmartboard, date, time, hours,
+					client);
+		} catch (IllegalArgumentException e) {
+			Output.userError(e.getMessage());
+			return null;
+		} catch (UncheckedIOException e) {
+			Output.userError("The booking couldn't be saved, so it hasn't been made");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Offers the user the next times a suitable room is free, when there
+	 * isn't one at the time they asked for
+	 * 
+	 * @return The booking made at the time the user picked, or null if they
+	 *         didn't pick one
+	 */
+	private static Booking offerAlternatives(int numComputers, int numBreakoutSeats, boolean hasPrinter,
+			boolean hasSmartboard, LocalDate date, LocalTime time, int hours, Client client) {
+		List<Availability> options = new RoomFinder().findAvailable(numComputers, numBreakoutSeats, hasPrinter,
+				hasSmartboard, date, time, date.plusDays(SEARCH_DAYS - 1), hours, SUGGESTIONS);
+		if (options.isEmpty()) {
 			Output.userError(
 					"No availabe rooms found for the given parameters");
 			return null;
 		}
+
+		Object selection = JOptionPane.showInputDialog(null,
+				"No rooms are free at that time, the next free times are:", "No Rooms Available",
+				JOptionPane.INFORMATION_MESSAGE, null, options.toArray(), options.get(0));
+		if (!(selection instanceof Availability)) {
+			return null;
+		}
+
+		try {
+			Booking b = book((Availability) selection, hours, client);
+			Output.console("Booking " + b.bookingID + " created");
+			return b;
+		} catch (NoRoomFoundException e) {
+			Output.userError("That room has just been booked by someone else");
+			return null;
+		} catch (UncheckedIOException e) {
+			Output.userError("The booking couldn't be saved, so it hasn't been made");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a booking saved with Java serialization. Older versions of the
+	 * system saved a copy of the whole Room and Client with each booking,
+	 * only their number and ID are kept.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		this.bookingID = (String) fields.get("bookingID", null);
+		this.date = (LocalDate) fields.get("date", null);
+		this.startTime = (LocalTime) fields.get("startTime", null);
+		this.length = fields.get("length", 0);
+		this.roomNumber = fields.get("roomNumber", 0);
+		this.clientID = fields.get("clientID", -1);
+
+		if (fields.get("room", null) instanceof Room) {
+			this.roomNumber = ((Room) fields.get("room", null)).getRoomNumber();
+		}
+		if (fields.get("client", null) instanceof Client) {
+			this.clientID = ((Client) fields.get("client", null)).getID();
+		}
 	}
 
 	@SuppressWarnings("unchecked")
 	private static void unpack(HashMap<Object, Object> load) {
 		if(load == null) { return; }
 		
-		bookings = (HashMap<String, Booking>) load.get("bookings");
-		bookingCount = (int) load.get("count");
+		bookings.putAll((HashMap<String, Booking>) load.get("bookings"));
+		int count = (int) load.get("count");
 		
-		Output.console("Loaded %s clients (File updated %s, %s", bookingCount,
+		Output.console("Loaded %s clients (File updated %s, %s", count,
 				load.get("date"), load.get("time") + ")");
 	}
 
-	private static void save()
-			throws IOException {
-		HashMap<String, Object> dat = new HashMap<String, Object>();
-		dat.put("count", bookings.size());
-		dat.put("bookings", bookings);
-		dat.put("date", LocalDate.now());
-		dat.put("time", LocalTime.now());
+	/**
+	 * Returns a unique string to identify the booking. Each booking takes
+	 * the next number from a 64 bit counter, which is saved with the store,
+	 * and shown as {@value #ID_PREFIX} followed by the number in base 36,
+	 * i.e. B2S is the 100th booking.
+	 * <p>
+	 * Bookings made by older versions of the system keep their IDs in the
+	 * format RN(room number)-(booking count).
+	 */
+	private static String generateBookingID() {
+		return encodeID(nextID.getAndIncrement());
+	}
+
+	static String encodeID(long id) {
+		return ID_PREFIX + Long.toString(id, Character.MAX_RADIX).toUpperCase();
+	}
+
+	/**
+	 * @return The number of a booking ID, or -1 if it wasn't made by
+	 *         {@link #generateBookingID}
+	 */
+	static long decodeID(String bookingID) {
+		if (bookingID == null || bookingID.length() <= ID_PREFIX.length() || !bookingID.startsWith(ID_PREFIX)) {
+			return -1;
+		}
+
+		try {
+			return Long.parseLong(bookingID.substring(ID_PREFIX.length()), Character.MAX_RADIX);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Moves the ID counter past a booking ID read from a store. Every
+	 * record read goes through here, including cancellations replayed
+	 * from the journal, so an ID is never handed out twice even if the
+	 * counter wasn't saved.
+	 */
+	private static void seen(String bookingID) {
+		long id = decodeID(bookingID);
+		if (id >= 0) {
+			nextID.accumulateAndGet(id + 1, Math::max);
+		}
+	}
+
+	/**
+	 * Adds a listener to be told about every booking made and cancelled
+	 * from now on
+	 */
+	public static void addListener(BookingListener l) {
+		listeners.add(l);
+	}
+
+	/**
+	 * @return The number the next booking ID will be made from. It only
+	 *         ever goes up, and is saved with the bookings.
+	 */
+	public static long getSequence() {
+		return nextID.get();
+	}
+
+	/**
+	 * Finds a booking by its ID
+	 * 
+	 * @return The booking, or null if there is no booking with that ID
+	 */
+	public static Booking findBooking(String ID) {
+		return ID == null ? null : bookings.get(ID);
+	}
+
+	public String getID() { return this.bookingID; }
 
-		FileIO.save(dat, PATH);
+	public Room getRoom() { return Room.findRoom(getRoomNumber()); }
+
+	public int getRoomNumber() {
+		long room = fromSlot(MappedBookingStore.ROOM);
+		return room == NO_SLOT ? this.roomNumber : (int) room;
+	}
+
+	public LocalDate getDate() {
+		long day = fromSlot(MappedBookingStore.DAY);
+		return day == NO_SLOT ? this.date : LocalDate.ofEpochDay(day);
+	}
+
+	public LocalTime getTime() {
+		long minute = fromSlot(MappedBookingStore.START);
+		return minute == NO_SLOT ? this.startTime : LocalTime.ofSecondOfDay(minute * 60);
+	}
+
+	public int getLength() {
+		long length = fromSlot(MappedBookingStore.LENGTH);
+		return length == NO_SLOT ? this.length : (int) length;
 	}
 
 	/**
-	 * Returns a unique string to identify the booking The string is in the
-	 * format: RN(room number)-(booking count), i.e. RN14-38, would
-	 * correlate to the 38th booking of room 14.
+	 * @return The minute the booking starts at, counted from the epoch
 	 */
-	private String generateBookingID() {
-		return "RN" + this.room.getRoomNumber() + "-" + bookingCount;
+	long getStartMinute() {
+		long day = fromSlot(MappedBookingStore.DAY);
+		long minute = fromSlot(MappedBookingStore.START);
+		if (day == NO_SLOT || minute == NO_SLOT) {
+			return toMinute(this.date, this.startTime);
+		}
+		return day * MINUTES_PER_DAY + minute;
 	}
 
-	public Room getRoom() { return this.room; }
+	/**
+	 * @return The minute the booking ends at, counted from the epoch
+	 */
+	long getEndMinute() { return getStartMinute() + getLength() * 60L; }
 
-	public LocalDate getDate() { return this.date; }
+	/**
+	 * Reads a field of the booking from its slot in the mapped store. The
+	 * slot is checked again afterwards, as a cancelled booking gives its
+	 * slot up to be reused, having first taken its fields back onto the
+	 * heap.
+	 * 
+	 * @param field
+	 *            Offset of the field in the slot
+	 * @return The field, or {@link #NO_SLOT} if the booking doesn't have a
+	 *         slot and the field on the heap should be used
+	 */
+	private long fromSlot(int field) {
+		int s = this.slot;
+		if (s == 0) {
+			return NO_SLOT;
+		}
+		long value = mapped.get(s - 1, field);
+		return this.slot == s ? value : NO_SLOT;
+	}
+
+	/**
+	 * Sets the mapped store the slots of bookings are read from. Called by
+	 * the store as it is loaded, only one is loaded at a time.
+	 */
+	static void useSlotsOf(MappedBookingStore store) {
+		mapped = store;
+	}
+
+	/**
+	 * Moves the booking into a slot of the mapped store which has been
+	 * written, letting go of the copy on the heap
+	 */
+	void mapTo(int slot) {
+		this.slot = slot;
+		this.date = null;
+		this.startTime = null;
+	}
 
-	public LocalTime getTime() { return this.startTime; }
+	/**
+	 * Takes the booking back onto the heap before its slot is given up
+	 */
+	void unmap() {
+		this.roomNumber = getRoomNumber();
+		this.clientID = getClientID();
+		this.date = getDate();
+		this.startTime = getTime();
+		this.length = getLength();
+		this.slot = 0;
+	}
 
-	public int getLength() { return this.length; }
+	/**
+	 * @return The given date and time as minutes counted from the epoch
+	 */
+	static long toMinute(LocalDate date, LocalTime time) {
+		return date.toEpochDay() * MINUTES_PER_DAY + time.getHour() * 60 + time.getMinute();
+	}
 
 	/**
 	 * Gets a collection with all bookings
@@ -222,16 +853,114 @@ public class Booking implements Serializable {
 		return new ArrayList<Booking>(bookings.values());
 	}
 
-	public Client getClient() { return this.client; }
+	/**
+	 * Gets a read-only view of the bookings in the system, which can be
+	 * walked through without copying them. Bookings made or cancelled while
+	 * it is being walked through may or may not be seen.
+	 * 
+	 * @return A live view of all the bookings
+	 */
+	public static Collection<Booking> allBookings() {
+		return Collections.unmodifiableCollection(bookings.values());
+	}
+
+	/**
+	 * Finds the bookings for a client, without looking at the bookings of
+	 * anyone else
+	 * 
+	 * @return The client's bookings, in no particular order
+	 */
+	public static List<Booking> findByClient(Client client) {
+		return BookingIndex.forClient(client == null ? -1 : client.getID());
+	}
+
+	/**
+	 * Finds the bookings starting on any day in a range of dates, without
+	 * looking at the bookings on other days
+	 * 
+	 * @param from
+	 *            First day, included
+	 * @param to
+	 *            Last day, included
+	 * @return The bookings in the range, ordered by day
+	 */
+	public static List<Booking> findBetween(LocalDate from, LocalDate to) {
+		return BookingIndex.between(from, to);
+	}
+
+	public Client getClient() { return Client.findByID(getClientID()); }
+
+	/**
+	 * @return The ID of the client the booking is for, or -1 if there is no
+	 *         client
+	 */
+	public int getClientID() {
+		long clientID = fromSlot(MappedBookingStore.CLIENT);
+		return clientID == NO_SLOT ? this.clientID : (int) clientID;
+	}
 	
 	public String toString() {
+		int length = getLength();
 		String str = "Booking ID: " + this.bookingID + "\n"
-					 + "Client: " + this.client + "\n"
-					 + "Room: " + this.room + "\n"
-					 + "Date: " + this.date + "\n"
-					 + "Start Time: " + this.startTime + "\n"
-					 + "Length: " + this.length + (this.length == 1 ? " hour" : " hours") +"\n";
+					 + "Client: " + this.getClient() + "\n"
+					 + "Room: " + getRoomNumber() + "\n"
+					 + "Date: " + getDate() + "\n"
+					 + "Start Time: " + getTime() + "\n"
+					 + "Length: " + length + (length == 1 ? " hour" : " hours") +"\n";
 		
 		return str;
 	}
+	
+	/**
+	 * Saves bookings as the booking ID as a length-prefixed string, followed
+	 * by [room number (4 bytes)][client ID (4 bytes)][epoch day (4
+	 * bytes)][start minute of the day (2 bytes)][length in hours (2 bytes)].
+	 */
+	public static final class Codec implements RecordCodec<String, Booking> {
+		/**
+		 * @return The length of the booking in hours, as it is saved
+		 * @throws IllegalArgumentException
+		 *             If the length doesn't fit, rather than saving it cut
+		 *             short
+		 */
+		static short lengthOf(Booking b) {
+			int length = b.getLength();
+			if (length < 0 || length > Short.MAX_VALUE) {
+				throw new IllegalArgumentException("Booking " + b.bookingID + " is too long to save: " + length
+						+ " hours");
+			}
+			return (short) length;
+		}
+
+		@Override
+		public short version() { return 1; }
+
+		@Override
+		public String keyOf(Booking b) { return b.bookingID; }
+
+		@Override
+		public int size(Booking b) {
+			return RecordCodec.sizeOf(b.bookingID) + 16;
+		}
+
+		@Override
+		public void write(Booking b, ByteBuffer buf) {
+			RecordCodec.putString(buf, b.bookingID);
+			LocalTime time = b.getTime();
+			buf.putInt(b.getRoomNumber());
+			buf.putInt(b.getClientID());
+			buf.putInt((int) b.getDate().toEpochDay());
+			buf.putShort((short) (time.getHour() * 60 + time.getMinute()));
+			buf.putShort(lengthOf(b));
+		}
+
+		@Override
+		public Booking read(ByteBuffer buf, short version) {
+			String bookingID = RecordCodec.getString(buf);
+			seen(bookingID);
+			return new Booking(bookingID, buf.getInt(), buf.getInt(),
+					LocalDate.ofEpochDay(buf.getInt()),
+					LocalTime.ofSecondOfDay(buf.getShort() * 60L), buf.getShort());
+		}
+	}
 }
@@ -0,0 +1,83 @@
+package bookings;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Indexes of the bookings by the client they are for and by the day they
+ * start on, so the bookings of one client, or of a range of dates, are
+ * found without looking at every booking in the system.
+ * <p>
+ * The indexes are kept up to date by {@link Booking} as bookings are
+ * created and cancelled, alongside the {@link RoomSchedule}. They can be
+ * read from any thread without locking.
+ */
+final class BookingIndex {
+	private static final ConcurrentHashMap<Integer, Set<Booking>>  byClient = new ConcurrentHashMap<Integer, Set<Booking>>();
+	// Keyed by the epoch day each booking starts on
+	private static final ConcurrentSkipListMap<Long, Set<Booking>> byDay    = new ConcurrentSkipListMap<Long, Set<Booking>>();
+
+	private BookingIndex() {
+	}
+
+	/**
+	 * Adds a booking to the indexes
+	 */
+	static void add(Booking b) {
+		byClient.computeIfAbsent(b.getClientID(), k -> ConcurrentHashMap.newKeySet()).add(b);
+		byDay.computeIfAbsent(b.getDate().toEpochDay(), k -> ConcurrentHashMap.newKeySet()).add(b);
+	}
+
+	/**
+	 * Removes a booking from the indexes. The sets emptied are left in
+	 * place, so a booking added at the same time is never lost.
+	 */
+	static void remove(Booking b) {
+		Set<Booking> s = byClient.get(b.getClientID());
+		if (s != null) {
+			s.remove(b);
+		}
+		s = byDay.get(b.getDate().toEpochDay());
+		if (s != null) {
+			s.remove(b);
+		}
+	}
+
+	/**
+	 * Rebuilds the indexes from the given bookings
+	 */
+	static void rebuild(Iterable<Booking> bookings) {
+		byClient.clear();
+		byDay.clear();
+		for (Booking b : bookings) {
+			add(b);
+		}
+	}
+
+	/**
+	 * @return The bookings for a client, in no particular order
+	 */
+	static List<Booking> forClient(int clientID) {
+		Set<Booking> s = byClient.get(clientID);
+		return s == null ? new ArrayList<Booking>() : new ArrayList<Booking>(s);
+	}
+
+	/**
+	 * @return The bookings starting on any day from one date to another,
+	 *         both included, ordered by day
+	 */
+	static List<Booking> between(LocalDate from, LocalDate to) {
+		ArrayList<Booking> found = new ArrayList<Booking>();
+		if (from.isAfter(to)) {
+			return found;
+		}
+		for (Set<Booking> s : byDay.subMap(from.toEpochDay(), true, to.toEpochDay(), true).values()) {
+			found.addAll(s);
+		}
+		return found;
+	}
+}
@@ -0,0 +1,19 @@
+package bookings;
+
+/**
+ * Told about every booking made and cancelled, once it is in the schedules.
+ * Listeners are added with {@link Booking#addListener} and called on the
+ * thread that made the change, while the booking's room is locked, so they
+ * should be quick.
+ */
+public interface BookingListener {
+	/**
+	 * Called after a booking is made
+	 */
+	void booked(Booking b);
+
+	/**
+	 * Called after a booking is cancelled
+	 */
+	void cancelled(Booking b);
+}
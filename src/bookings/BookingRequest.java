@@ -0,0 +1,72 @@
+package bookings;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import clients.Client;
+
+/**
+ * The requirements for one booking, for booking many rooms at once with
+ * {@link Booking#newBookings}
+ */
+public final class BookingRequest {
+	private final int       numComputers;
+	private final int       breakoutSeats;
+	private final boolean   hasPrinter;
+	private final boolean   hasSmartboard;
+	private final LocalDate date;
+	private final LocalTime time;
+	private final int       hours;
+	private final Client    client;
+
+	/**
+	 * @param numComputers
+	 *            Minimum number of computers
+	 * @param breakoutSeats
+	 *            Minimum number of breakout seats
+	 * @param hasPrinter
+	 *            Whether the room should have a printer
+	 * @param hasSmartboard
+	 *            Whether the room should have a smartboard
+	 * @param date
+	 *            Date of the booking
+	 * @param time
+	 *            Start time of the booking
+	 * @param hours
+	 *            Length of the booking in hours
+	 * @param client
+	 *            Client the booking is for, can be null
+	 * @throws IllegalArgumentException
+	 *             If the computers or breakout seats are negative, the date
+	 *             or time is missing, or the length is out of range, see
+	 *             {@link Booking#MAX_HOURS}
+	 */
+	public BookingRequest(int numComputers, int breakoutSeats, boolean hasPrinter, boolean hasSmartboard,
+			LocalDate date, LocalTime time, int hours, Client client) {
+		Booking.check(numComputers, breakoutSeats, date, time, hours);
+		this.numComputers = numComputers;
+		this.breakoutSeats = breakoutSeats;
+		this.hasPrinter = hasPrinter;
+		this.hasSmartboard = hasSmartboard;
+		this.date = date;
+		this.time = time;
+		this.hours = hours;
+		this.client = client;
+	}
+
+	public int getComputers() { return this.numComputers; }
+
+	public int getBreakoutSeats() { return this.breakoutSeats; }
+
+	public boolean hasPrinter() { return this.hasPrinter; }
+
+	public boolean hasSmartboard() { return this.hasSmartboard; }
+
+	public LocalDate getDate() { return this.date; }
+
+	public LocalTime getTime() { return this.time; }
+
+	public int getHours() { return this.hours; }
+
+	public Client getClient() { return this.client; }
+}
@@ -0,0 +1,132 @@
+package bookings;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.function.Predicate;
+
+import clients.Client;
+import clients.ExistingClientException;
+import rooms.ExistingRoomException;
+import rooms.Room;
+
+/**
+ * Everything needed to run the Room Booking System from code, without any
+ * dialogs, for tests, benchmarks and batch jobs. The dialogs in the Swing
+ * menu gather their input and then call the same methods.
+ * <p>
+ * Each method either returns what it made or throws a checked exception
+ * saying why it couldn't, and throws {@link IllegalArgumentException} for
+ * input that could never work. Every method is safe to call from many
+ * threads at once.
+ */
+public final class BookingService {
+	private BookingService() {
+	}
+
+	/**
+	 * Adds a room, see {@link Room#create}
+	 *
+	 * @throws ExistingRoomException
+	 *             If a room with the number already exists
+	 */
+	public static Room addRoom(int roomNumber, int numComputers, int breakoutSeats, boolean hasSmartboard,
+			boolean hasPrinter) throws ExistingRoomException {
+		return Room.create(roomNumber, numComputers, breakoutSeats, hasSmartboard, hasPrinter);
+	}
+
+	/**
+	 * Adds a client, see {@link Client#create}
+	 *
+	 * @throws ExistingClientException
+	 *             If a client already has the telephone number or email
+	 */
+	public static Client addClient(String fname, String lname, String telephone, String email)
+			throws ExistingClientException {
+		return Client.create(fname, lname, telephone, email);
+	}
+
+	/**
+	 * Books the best fitting room, see
+	 * {@link Booking#book(int, int, boolean, boolean, LocalDate, LocalTime, int, Client)}
+	 *
+	 * @throws NoRoomFoundException
+	 *             If no suitable room is free at that time
+	 */
+	public static Booking book(int numComputers, int breakoutSeats, boolean hasPrinter, boolean hasSmartboard,
+			LocalDate date, LocalTime time, int hours, Client client) throws NoRoomFoundException {
+		return Booking.book(numComputers, breakoutSeats, hasPrinter, hasSmartboard, date, time, hours, client);
+	}
+
+	/**
+	 * Books a room found by {@link #findAvailable}
+	 *
+	 * @throws NoRoomFoundException
+	 *             If the room has been booked since it was found
+	 */
+	public static Booking book(Availability a, int hours, Client client) throws NoRoomFoundException {
+		return Booking.book(a, hours, client);
+	}
+
+	/**
+	 * Books a room for each of a batch of requests, see
+	 * {@link Booking#newBookings}
+	 *
+	 * @return The bookings made, in the same order as the requests, with
+	 *         null for any request that no room could be found for
+	 */
+	public static List<Booking> bookAll(List<BookingRequest> requests) {
+		return Booking.newBookings(requests);
+	}
+
+	/**
+	 * Finds the earliest times a suitable room is free, see
+	 * {@link RoomFinder#findAvailable}
+	 */
+	public static List<Availability> findAvailable(int numComputers, int breakoutSeats, boolean hasPrinter,
+			boolean hasSmartboard, LocalDate from, LocalTime time, LocalDate to, int hours, int count) {
+		return new RoomFinder().findAvailable(numComputers, breakoutSeats, hasPrinter, hasSmartboard, from, time,
+				to, hours, count);
+	}
+
+	/**
+	 * Cancels a booking
+	 *
+	 * @return True if the booking was cancelled, false if there is no
+	 *         booking with that ID
+	 */
+	public static boolean cancel(String bookingID) {
+		return Booking.cancelBooking(bookingID);
+	}
+
+	/**
+	 * Cancels every booking that matches with one write to the store, see
+	 * {@link Booking#cancelBookings}
+	 *
+	 * @return The bookings cancelled
+	 */
+	public static List<Booking> cancelAll(Predicate<Booking> which) {
+		return Booking.cancelBookings(which);
+	}
+
+	/**
+	 * @return The booking with the ID, or null if there isn't one
+	 */
+	public static Booking findBooking(String bookingID) {
+		return Booking.findBooking(bookingID);
+	}
+
+	/**
+	 * @return The client with the ID, or null if there isn't one
+	 */
+	public static Client findClient(int clientID) {
+		return Client.findByID(clientID);
+	}
+
+	/**
+	 * @return The room with the number, or null if there isn't one
+	 */
+	public static Room findRoom(int roomNumber) {
+		return Room.findRoom(roomNumber);
+	}
+}
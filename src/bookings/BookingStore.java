@@ -0,0 +1,62 @@
+package bookings;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Somewhere to keep the bookings between runs of the system. Each store is
+ * given the live map of bookings when it is created, and keeps it up to
+ * date as bookings are added and removed.
+ * <p>
+ * The store used is picked with the {@code bookings.store} system property:
+ * {@code journal} (the default) keeps a {@link JournalBookingStore},
+ * {@code mapped} keeps a {@link MappedBookingStore}. Switching between
+ * them moves the bookings over on the next start.
+ */
+interface BookingStore {
+	/**
+	 * Loads every booking in the store into the map
+	 * 
+	 * @return The booking ID counter saved with the store
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	long load() throws IOException, ClassNotFoundException;
+
+	/**
+	 * Adds a booking to the map and saves it
+	 * 
+	 * @throws IOException
+	 *             If the booking couldn't be saved, in which case it isn't
+	 *             left in the map
+	 */
+	void put(Booking b) throws IOException;
+
+	/**
+	 * Adds several bookings to the map and saves them all in one write
+	 * 
+	 * @throws IOException
+	 *             If the bookings couldn't be saved, in which case none of
+	 *             them are left in the map
+	 */
+	void putAll(Collection<Booking> batch) throws IOException;
+
+	/**
+	 * Removes a booking from the map and the store
+	 * 
+	 * @return The booking that was removed, or null if there wasn't one
+	 *         with that ID
+	 * @throws IOException
+	 */
+	Booking remove(String bookingID) throws IOException;
+
+	/**
+	 * Removes several bookings from the map and the store in one write
+	 * 
+	 * @return The bookings that were removed, leaving out any IDs that
+	 *         weren't in the map
+	 * @throws IOException
+	 */
+	List<Booking> removeAll(Collection<String> bookingIDs) throws IOException;
+}
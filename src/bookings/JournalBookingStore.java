@@ -0,0 +1,94 @@
+package bookings;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import fileio.Journal;
+import fileio.RecordHeader;
+import ui.Output;
+
+/**
+ * Keeps the bookings in a snapshot file, with every change since the
+ * snapshot in a {@link Journal}
+ */
+final class JournalBookingStore implements BookingStore {
+	private final Journal<String, Booking>          journal;
+	private final Map<String, Booking>              bookings;
+	private final Consumer<HashMap<Object, Object>> legacy;
+
+	/**
+	 * @param path
+	 *            Path of the snapshot file
+	 * @param bookings
+	 *            The live map of bookings
+	 * @param sequence
+	 *            Supplies the booking ID counter to save with the snapshot
+	 * @param legacy
+	 *            Unpacks a snapshot saved by an older version of the
+	 *            system into the map
+	 */
+	JournalBookingStore(String path, Map<String, Booking> bookings, LongSupplier sequence,
+			Consumer<HashMap<Object, Object>> legacy) {
+		this.journal = new Journal<String, Booking>(path, bookings, new Booking.Codec(), sequence);
+		this.bookings = bookings;
+		this.legacy = legacy;
+	}
+
+	@Override
+	public long load() throws IOException, ClassNotFoundException {
+		RecordHeader header = journal.load(legacy);
+		if (header == null) {
+			return 0;
+		}
+
+		Output.console("Loaded %s bookings (File updated %s)", header.getCount(), header.getSaved());
+		return header.getSequence();
+	}
+
+	@Override
+	public void put(Booking b) throws IOException {
+		try {
+			journal.put(b.getID(), b);
+		} catch (IOException e) {
+			bookings.remove(b.getID(), b);
+			throw e;
+		}
+	}
+
+	@Override
+	public void putAll(Collection<Booking> batch) throws IOException {
+		try {
+			journal.putAll(batch);
+		} catch (IOException e) {
+			for (Booking b : batch) {
+				bookings.remove(b.getID(), b);
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public Booking remove(String bookingID) throws IOException {
+		return journal.remove(bookingID);
+	}
+
+	@Override
+	public List<Booking> removeAll(Collection<String> bookingIDs) throws IOException {
+		return journal.removeAll(bookingIDs);
+	}
+
+	/**
+	 * Folds the journal into a new snapshot soon, saving the booking ID
+	 * counter with it
+	 * 
+	 * @throws IOException
+	 */
+	void compactSoon() throws IOException {
+		journal.compactSoon();
+	}
+}
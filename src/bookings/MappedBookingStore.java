@@ -0,0 +1,431 @@
+package bookings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import metrics.Metrics;
+import metrics.StoreEvent;
+import metrics.Timer;
+import ui.Output;
+
+/**
+ * Keeps the bookings in a memory-mapped file made up of fixed-size slots,
+ * one per booking. Saving a booking writes its slot straight into the page
+ * cache, after which only its ID and slot are kept on the heap, and its
+ * getters read the rest straight from the mapped buffer. Loading the store
+ * maps the file and makes a booking of just the ID for each slot in use.
+ * <p>
+ * The file starts with a {@value #HEADER} byte header:
+ * <ol>
+ * <li>Magic number (4 bytes)</li>
+ * <li>Version of the slot layout (2 bytes)</li>
+ * <li>The number of slots that have been used (4 bytes)</li>
+ * <li>The booking ID counter (8 bytes, 4 bytes in version 1)</li>
+ * </ol>
+ * Followed by {@value #SLOT} byte slots:
+ * <ol>
+ * <li>Status, {@link #FREE}, {@link #ACTIVE} or {@link #CANCELLED} (1
+ * byte)</li>
+ * <li>Booking ID as a length byte followed by up to {@value #ID_LENGTH}
+ * ASCII characters (24 bytes)</li>
+ * <li>Room number (4 bytes)</li>
+ * <li>Client ID (4 bytes)</li>
+ * <li>Epoch day of the booking (4 bytes)</li>
+ * <li>Start minute of the day (2 bytes)</li>
+ * <li>Length in hours (2 bytes)</li>
+ * </ol>
+ * Slots of cancelled bookings are reused by later bookings, so a booking
+ * being cancelled is first taken back onto the heap. A version 1 file has
+ * its header upgraded when it is loaded, the slots are the same. Each
+ * booking remembers its own slot, so the store keeps no index of its own
+ * on the heap.
+ * <p>
+ * The first time the store is used, bookings are copied over from the
+ * journaled store. The magic number is written last, once the copy is on
+ * disk, so a copy that was cut short is made again rather than trusted.
+ * Once the journaled store is used again the bookings are handed back to
+ * it, see {@link #handBack}, and the mapped file is moved aside, so the two
+ * stores never hold different bookings.
+ */
+final class MappedBookingStore implements BookingStore {
+	static final byte FREE      = 0;
+	static final byte ACTIVE    = 1;
+	static final byte CANCELLED = 2;
+
+	private static final int     MAGIC     = 0x52424D31; // "RBM1"
+	private static final short   VERSION   = 2;
+	private static final int     HEADER    = 64;
+	private static final int     SLOT      = 40;
+	private static final int     ID_LENGTH = 23;
+	private static final int     GROWTH    = 4096;
+	private static final boolean FSYNC     = Boolean.getBoolean("fileio.journal.fsync");
+	private static final Timer   SAVE      = Metrics.timer("save.mapped");
+
+	// Offsets of the header fields
+	private static final int H_VERSION  = 4;
+	private static final int H_USED     = 6;
+	private static final int H_SEQUENCE = 10;
+
+	// Offsets of the fields in each slot, the ones the getters of Booking
+	// read are package-private
+	private static final int STATUS = 0;
+	private static final int ID     = 1;
+	static final int         ROOM   = 24;
+	static final int         CLIENT = 28;
+	static final int         DAY    = 32;
+	static final int         START  = 36;
+	static final int         LENGTH = 38;
+
+	private final String                   path;
+	private final Map<String, Booking>     bookings;
+	private final LongSupplier             sequence;
+	private final BookingStore             source;
+	private final ArrayDeque<Integer>      free  = new ArrayDeque<Integer>();
+
+	private FileChannel               channel;
+	// Swapped for a bigger mapping as the file grows, while bookings may
+	// be read from it without locking the store
+	private volatile MappedByteBuffer buf;
+	private int                       used;
+
+	/**
+	 * @param path
+	 *            Path of the mapped file
+	 * @param bookings
+	 *            The live map of bookings
+	 * @param sequence
+	 *            Supplies the booking ID counter to save in the header
+	 * @param source
+	 *            Store to copy the bookings from if the mapped file doesn't
+	 *            exist yet
+	 */
+	MappedBookingStore(String path, Map<String, Booking> bookings, LongSupplier sequence, BookingStore source) {
+		this.path = path;
+		this.bookings = bookings;
+		this.sequence = sequence;
+		this.source = source;
+	}
+
+	/**
+	 * @return True if there is a whole mapped file at the path from an
+	 *         earlier run
+	 */
+	static boolean exists(String path) throws IOException {
+		Path file = Paths.get(path);
+		if (!Files.exists(file) || Files.size(file) < HEADER) {
+			return false;
+		}
+
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			ch.read(magic, 0);
+			return magic.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Loads the journaled store, then brings it up to date with the
+	 * bookings in the mapped file, which were saved by a later run. The
+	 * bookings are saved to the journal in one write for those added and
+	 * one for those cancelled, and the mapped file is then moved to
+	 * {@code <path>.old}. The next time the mapped store is used it copies
+	 * the bookings from the journal again.
+	 * 
+	 * @param path
+	 *            Path of the mapped file
+	 * @param bookings
+	 *            The live map of bookings
+	 * @param target
+	 *            The journaled store to hand the bookings back to
+	 * @return The booking ID counter saved with either store, whichever is
+	 *         higher
+	 */
+	static long handBack(String path, Map<String, Booking> bookings, BookingStore target)
+			throws IOException, ClassNotFoundException {
+		long sequence = target.load();
+
+		HashMap<String, Booking> mapped = new HashMap<String, Booking>();
+		MappedBookingStore from = new MappedBookingStore(path, mapped, () -> 0, target);
+		sequence = Math.max(sequence, from.open());
+		for (int slot = 0; slot < from.used; slot++) {
+			if (from.status(slot) == ACTIVE) {
+				Booking b = from.read(slot);
+				mapped.put(b.getID(), b);
+			}
+		}
+		from.channel.close();
+
+		ArrayList<String> cancelled = new ArrayList<String>();
+		for (String id : bookings.keySet()) {
+			if (!mapped.containsKey(id)) {
+				cancelled.add(id);
+			}
+		}
+		ArrayList<Booking> added = new ArrayList<Booking>();
+		for (Booking b : mapped.values()) {
+			if (!bookings.containsKey(b.getID())) {
+				added.add(b);
+			}
+		}
+		target.removeAll(cancelled);
+		target.putAll(added);
+
+		Files.move(Paths.get(path), Paths.get(path + ".old"), StandardCopyOption.REPLACE_EXISTING);
+		Output.console("Moved %s bookings from %s back to the journal, %s added and %s cancelled", mapped.size(),
+				path, added.size(), cancelled.size());
+		return sequence;
+	}
+
+	@Override
+	public synchronized long load() throws IOException, ClassNotFoundException {
+		Booking.useSlotsOf(this);
+		if (!exists(path)) {
+			// Anything already there is a copy that was cut short
+			channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			map(GROWTH);
+			long count = source.load();
+			for (Booking b : bookings.values()) {
+				write(b);
+			}
+			buf.putLong(H_SEQUENCE, Math.max(count, sequence.getAsLong())).putShort(H_VERSION, VERSION);
+			buf.force();
+			buf.putInt(0, MAGIC);
+			buf.force();
+			Output.console("Created %s with %s bookings", path, bookings.size());
+			return count;
+		}
+
+		long sequence = open();
+		for (int slot = 0; slot < used; slot++) {
+			if (status(slot) == ACTIVE) {
+				Booking b = new Booking(id(slot), slot + 1);
+				bookings.put(b.getID(), b);
+			} else {
+				free.push(slot);
+			}
+		}
+
+		Output.console("Loaded %s bookings from %s", bookings.size(), path);
+		return sequence;
+	}
+
+	/**
+	 * Maps an existing file, upgrading its header if it is version 1
+	 * 
+	 * @return The booking ID counter saved in the header
+	 */
+	private long open() throws IOException {
+		channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		map((int) ((channel.size() - HEADER) / SLOT));
+		if (buf.getInt(0) != MAGIC || buf.getShort(H_VERSION) < 1 || buf.getShort(H_VERSION) > VERSION) {
+			throw new IOException(path + " is not a bookings file");
+		}
+		if (buf.getShort(H_VERSION) == 1) {
+			buf.putLong(H_SEQUENCE, buf.getInt(H_SEQUENCE)).putShort(H_VERSION, VERSION);
+			Output.console("Upgraded the header of %s", path);
+		}
+
+		used = buf.getInt(H_USED);
+		return buf.getLong(H_SEQUENCE);
+	}
+
+	@Override
+	public synchronized void put(Booking b) throws IOException {
+		long start = System.nanoTime();
+		StoreEvent event = new StoreEvent();
+		event.begin();
+		// Moved into its slot before it is put in the map, so no one else
+		// sees it while it lets go of its fields
+		write(b);
+		bookings.put(b.getID(), b);
+		buf.putLong(H_SEQUENCE, sequence.getAsLong());
+		if (FSYNC) {
+			buf.force();
+		}
+		SAVE.record(start);
+		event.finish("put", path, 1);
+	}
+
+	@Override
+	public synchronized void putAll(Collection<Booking> batch) throws IOException {
+		long start = System.nanoTime();
+		StoreEvent event = new StoreEvent();
+		event.begin();
+		ArrayList<Booking> written = new ArrayList<Booking>(batch.size());
+		try {
+			for (Booking b : batch) {
+				write(b);
+				written.add(b);
+			}
+		} catch (IOException | RuntimeException e) {
+			for (Booking b : written) {
+				release(b);
+			}
+			throw e;
+		}
+		for (Booking b : batch) {
+			bookings.put(b.getID(), b);
+		}
+		buf.putLong(H_SEQUENCE, sequence.getAsLong());
+		if (FSYNC) {
+			buf.force();
+		}
+		SAVE.record(start);
+		event.finish("put", path, batch.size());
+	}
+
+	@Override
+	public synchronized Booking remove(String bookingID) throws IOException {
+		Booking b = bookings.remove(bookingID);
+		if (b == null || b.slot == 0) {
+			return b;
+		}
+
+		long start = System.nanoTime();
+		StoreEvent event = new StoreEvent();
+		event.begin();
+		release(b);
+		if (FSYNC) {
+			buf.force();
+		}
+		SAVE.record(start);
+		event.finish("remove", path, 1);
+		return b;
+	}
+
+	@Override
+	public synchronized List<Booking> removeAll(Collection<String> bookingIDs) throws IOException {
+		long start = System.nanoTime();
+		StoreEvent event = new StoreEvent();
+		event.begin();
+		ArrayList<Booking> removed = new ArrayList<Booking>(bookingIDs.size());
+		for (String id : bookingIDs) {
+			Booking b = bookings.remove(id);
+			if (b != null) {
+				release(b);
+				removed.add(b);
+			}
+		}
+		if (FSYNC && !removed.isEmpty()) {
+			buf.force();
+		}
+		SAVE.record(start);
+		event.finish("remove", path, removed.size());
+		return removed;
+	}
+
+	/**
+	 * Writes a booking into a free slot, and moves the booking into it
+	 */
+	private void write(Booking b) throws IOException {
+		if (b.slot != 0) {
+			return;
+		}
+		byte[] id = b.getID().getBytes(StandardCharsets.US_ASCII);
+		if (id.length > ID_LENGTH) {
+			throw new IOException("Booking ID " + b.getID() + " is too long to store");
+		}
+		short length = Booking.Codec.lengthOf(b);
+
+		int slot = free.isEmpty() ? next() : free.pop();
+		int off = offset(slot);
+		buf.put(off + ID, (byte) id.length);
+		buf.put(off + ID + 1, id);
+		buf.putInt(off + ROOM, b.getRoomNumber());
+		buf.putInt(off + CLIENT, b.getClientID());
+		buf.putInt(off + DAY, (int) b.getDate().toEpochDay());
+		buf.putShort(off + START, (short) (b.getTime().getHour() * 60 + b.getTime().getMinute()));
+		buf.putShort(off + LENGTH, length);
+		// Status goes last, so a slot is never marked as active before the
+		// rest of it has been written
+		buf.put(off + STATUS, ACTIVE);
+		b.mapTo(slot + 1);
+	}
+
+	/**
+	 * Takes a cancelled booking back onto the heap, and marks its slot as
+	 * free to reuse
+	 */
+	private void release(Booking b) {
+		int slot = b.slot;
+		if (slot != 0) {
+			b.unmap();
+			buf.put(offset(slot - 1) + STATUS, CANCELLED);
+			free.push(slot - 1);
+		}
+	}
+
+	/**
+	 * @return A slot that has never been used, growing the file if needed
+	 */
+	private int next() throws IOException {
+		if (offset(used + 1) > buf.capacity()) {
+			map(used + GROWTH);
+		}
+		buf.putInt(H_USED, used + 1);
+		return used++;
+	}
+
+	/**
+	 * Maps the file with room for the given number of slots
+	 */
+	private void map(int slotCount) throws IOException {
+		buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, offset(slotCount));
+	}
+
+	private static int offset(int slot) {
+		return HEADER + slot * SLOT;
+	}
+
+	/**
+	 * Reads a field of a booking straight from its slot
+	 * 
+	 * @param field
+	 *            Offset of the field, {@link #ROOM}, {@link #CLIENT},
+	 *            {@link #DAY}, {@link #START} or {@link #LENGTH}
+	 */
+	long get(int slot, int field) {
+		MappedByteBuffer b = buf;
+		int off = offset(slot) + field;
+		return field == START || field == LENGTH ? b.getShort(off) : b.getInt(off);
+	}
+
+	private String id(int slot) {
+		int off = offset(slot);
+		byte[] id = new byte[buf.get(off + ID)];
+		buf.get(off + ID + 1, id);
+		return new String(id, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Builds a booking from a slot, kept wholly on the heap
+	 */
+	private Booking read(int slot) {
+		int off = offset(slot);
+		return new Booking(id(slot), buf.getInt(off + ROOM), buf.getInt(off + CLIENT),
+				LocalDate.ofEpochDay(buf.getInt(off + DAY)), LocalTime.ofSecondOfDay(buf.getShort(off + START) * 60L),
+				buf.getShort(off + LENGTH));
+	}
+
+	private byte status(int slot) {
+		return buf.get(offset(slot) + STATUS);
+	}
+}
@@ -1,12 +1,16 @@
 package bookings;
 
+/**
+ * Thrown when no room meeting a booking's requirements is free at the time
+ * asked for
+ */
 @SuppressWarnings("serial")
-class NoRoomFoundException extends Exception{
-	NoRoomFoundException(String str){
+public class NoRoomFoundException extends Exception{
+	public NoRoomFoundException(String str){
 		super(str);
 	}
 	
-	NoRoomFoundException(){
+	public NoRoomFoundException(){
 		super();
 	}
 }
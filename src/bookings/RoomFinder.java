@@ -3,11 +3,20 @@ package bookings;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import clients.Client;
+import metrics.Metrics;
+import metrics.RoomSearchEvent;
+import metrics.Timer;
 import rooms.Room;
+import rooms.RoomCatalog;
 
 /**
  * This class is used to find and filter bookings and rooms. It is used by
@@ -18,42 +27,36 @@ import rooms.Room;
  *
  */
 public class RoomFinder {
-	private ArrayList<Room>    rooms;
-	private ArrayList<Booking> bookings;
+	private static final int   MINUTES_PER_DAY = 24 * 60;
+	private static final int   SLOT_MINUTES    = 15;
+	// Days searched side by side before checking if enough have been found
+	private static final int   DAYS_PER_ROUND  = Math.max(4, 2 * ForkJoinPool.getCommonPoolParallelism());
+	private static final Timer BEST_FIT        = Metrics.timer("find.bestFit");
+	private static final Timer AVAILABLE       = Metrics.timer("find.available");
 
-	public RoomFinder() {
-		rooms = Room.getRooms();
-		bookings = Booking.getBookings();
-	}
+	private ArrayList<Room> rooms;
 
 	/**
-	 * Gets a copy of the filtered list held by this RoomFinder object.
+	 * Gets the filtered list held by this RoomFinder object. The list is
+	 * only copied from the rooms in the system the first time it is
+	 * filtered.
 	 * 
 	 * @return
 	 */
-	public ArrayList<Room> getRooms() { return this.rooms; }
+	public ArrayList<Room> getRooms() { return rooms(); }
 
-	/**
-	 * Returns the room in the TreeSet rooms which has the lowest number of
-	 * computers. Based on the natural ordering of the Room object, this
-	 * should be the first element in the Set.
-	 * 
-	 * If no elements exist, it will return null.
-	 * 
-	 * @return The room in the Set with the lowest number of computers, or
-	 *         null
-	 */
-	private Room getLowestComputers() {
-		if (rooms.size() > 0) { 
-			Collections.sort(rooms);
-			return rooms.get(0); 
+	private ArrayList<Room> rooms() {
+		if (rooms == null) {
+			rooms = Room.getRooms();
 		}
-
-		return null;
+		return rooms;
 	}
 
 	/**
-	 * Returns a room that best fits the given parameters
+	 * Returns the room that best fits the given parameters: the free room
+	 * with the fewest computers, then the fewest breakout seats, that meets
+	 * every requirement. Found through the {@link RoomCatalog} without
+	 * copying or sorting the rooms.
 	 * 
 	 * @param numComputers
 	 * @param breakoutSeats
@@ -66,13 +69,102 @@ public class RoomFinder {
 	 */
 	public Room getBestFit(int numComputers, int breakoutSeats, boolean hasPrinter, boolean hasSmartboard, LocalDate date, 
 			LocalTime time, int hours) {
-		filterByDateTime(date, time, hours);
-		filterByBreakouts(breakoutSeats);
-		filterByComputers(numComputers);
-		filterByPrinter(hasPrinter);
-		filterBySmartboard(hasSmartboard);
+		long start = System.nanoTime();
+		RoomSearchEvent event = new RoomSearchEvent();
+		event.begin();
+		Room found = RoomCatalog.findFirst(numComputers, breakoutSeats, hasPrinter, hasSmartboard,
+				r -> SlotCalendar.isFree(r.getRoomNumber(), date, time, hours));
+		BEST_FIT.record(start);
+		event.finish("best-fit", numComputers, breakoutSeats, date, found == null ? -1 : found.getRoomNumber(),
+				found == null ? 0 : 1);
+		return found;
+	}
+
+	/**
+	 * Finds the earliest times from a given date and time that a room
+	 * meeting every requirement is free for the whole booking, trying each
+	 * quarter hour in turn. Each option is the best fitting room free at
+	 * that time, so there is at most one option for each start time.
+	 * <p>
+	 * Days are searched side by side on the common fork-join pool, a few at
+	 * a time, until enough options have been found. Each room is checked
+	 * against the {@link SlotCalendar} rather than every booking.
+	 * 
+	 * @param numComputers
+	 * @param breakoutSeats
+	 * @param hasPrinter
+	 * @param hasSmartboard
+	 * @param from
+	 *            First date to search
+	 * @param time
+	 *            Earliest start time on the first date
+	 * @param to
+	 *            Last date to search
+	 * @param hours
+	 *            Length of the booking in hours
+	 * @param count
+	 *            Most options to return
+	 * @return Up to {@code count} options, earliest first
+	 */
+	public List<Availability> findAvailable(int numComputers, int breakoutSeats, boolean hasPrinter,
+			boolean hasSmartboard, LocalDate from, LocalTime time, LocalDate to, int hours, int count) {
+		long start = System.nanoTime();
+		RoomSearchEvent event = new RoomSearchEvent();
+		event.begin();
+		List<Availability> found = search(numComputers, breakoutSeats, hasPrinter, hasSmartboard, from, time, to,
+				hours, count);
+		AVAILABLE.record(start);
+		event.finish("available", numComputers, breakoutSeats, from,
+				found.isEmpty() ? -1 : found.get(0).getRoom().getRoomNumber(), found.size());
+		return found;
+	}
 
-		return getLowestComputers();
+	private static List<Availability> search(int numComputers, int breakoutSeats, boolean hasPrinter,
+			boolean hasSmartboard, LocalDate from, LocalTime time, LocalDate to, int hours, int count) {
+		List<Room> suitable = RoomCatalog.findAll(numComputers, breakoutSeats, hasPrinter, hasSmartboard, r -> true);
+		ArrayList<Availability> found = new ArrayList<Availability>();
+		if (suitable.isEmpty()) {
+			return found;
+		}
+
+		long first = from.toEpochDay();
+		long last = to.toEpochDay();
+		for (long day = first; day <= last && found.size() < count; day += DAYS_PER_ROUND) {
+			List<List<Availability>> round = LongStream.rangeClosed(day, Math.min(last, day + DAYS_PER_ROUND - 1))
+					.parallel()
+					.mapToObj(d -> availableOn(suitable, d, d == first ? time : LocalTime.MIDNIGHT, hours, count))
+					.collect(Collectors.toList());
+			for (List<Availability> options : round) {
+				found.addAll(options);
+			}
+		}
+
+		return found.size() > count ? new ArrayList<Availability>(found.subList(0, count)) : found;
+	}
+
+	/**
+	 * Finds the earliest times on one day that any of the given rooms is
+	 * free, trying them in order
+	 */
+	private static List<Availability> availableOn(List<Room> suitable, long epochDay, LocalTime earliest, int hours,
+			int count) {
+		ArrayList<Availability> found = new ArrayList<Availability>();
+		LocalDate date = LocalDate.ofEpochDay(epochDay);
+		long midnight = epochDay * MINUTES_PER_DAY;
+
+		int minute = earliest.getHour() * 60 + earliest.getMinute();
+		while (minute < MINUTES_PER_DAY && found.size() < count) {
+			long start = midnight + minute;
+			for (Room r : suitable) {
+				if (SlotCalendar.isFree(r.getRoomNumber(), start, start + hours * 60L)) {
+					found.add(new Availability(r, date, LocalTime.of(minute / 60, minute % 60)));
+					break;
+				}
+			}
+			minute = (minute / SLOT_MINUTES + 1) * SLOT_MINUTES;
+		}
+
+		return found;
 	}
 
 	/**
@@ -85,7 +177,7 @@ public class RoomFinder {
 	public void filterByComputers(int numComputers) {
 		Predicate<Room> pred = r -> r.getComputers() < numComputers;
 		 
-		rooms.removeIf(pred);
+		rooms().removeIf(pred);
 	}
 
 	/**
@@ -97,7 +189,7 @@ public class RoomFinder {
 	 */
 	public void filterByBreakouts(int numBreakouts) {
 		Predicate<Room> pred = r -> r.getBreakoutSeats() < numBreakouts;
-		rooms.removeIf(pred);
+		rooms().removeIf(pred);
 	}
 
 	/**
@@ -109,7 +201,7 @@ public class RoomFinder {
 	 */
 	public void filterBySmartboard(boolean has) {
 		Predicate<Room> pred = r -> !(r.hasSmartboard() == has);
-		rooms.removeIf(pred);
+		rooms().removeIf(pred);
 	}
 
 	/**
@@ -121,10 +213,15 @@ public class RoomFinder {
 	 */
 	public void filterByPrinter(boolean has) {
 		Predicate<Room> pred = r -> !(r.hasPrinter() == has);
-		rooms.removeIf(pred);
+		rooms().removeIf(pred);
 	}
 
 	/**
+	 * Removes all rooms from the list which have a booking overlapping the
+	 * given date, time and length. A booking which ends at exactly the time
+	 * the new one starts does not overlap it. The rooms to remove are found
+	 * with a single scan of the {@link SlotCalendar} for the day.
+	 * 
 	 * @param date
 	 *            The date that the new booking is on
 	 * @param time
@@ -133,56 +230,23 @@ public class RoomFinder {
 	 *            Length of time in hours the new booking lasts
 	 */
 	public void filterByDateTime(LocalDate date, LocalTime time, int length) {
-		filterByDate(date);
-		filterByTime(time, length);
+		Set<Integer> busy = SlotCalendar.busyRooms(date, time, length);
+		Predicate<Room> pred = r -> busy.contains(r.getRoomNumber());
+		rooms().removeIf(pred);
 	}
-
+	
 	/**
-	 * TODO write something explanatory here
-	 * 
-	 * @param date
+	 * Filters out all rooms that the given client has no bookings in. Only
+	 * the client's own bookings are looked at.
+	 *
+	 * @param cl
+	 *            The client whose rooms to keep
 	 */
-	public void filterByDate(LocalDate date) {
-		for (Booking b : bookings) {
-			if (b.getDate().compareTo(date) != 0) {
-				rooms.remove(b.getRoom());
-			}
-		}
-	}
-	
 	public void filterByClient(Client cl) {
-		for (Booking b : bookings) {
-			if (b.getClient() != cl) {
-				rooms.remove(b.getRoom());
-			}
-		}
-	}
-
-	/*
-	 * Removes a room from the list if it has a booking colliding with the
-	 * given time and length. Will not remove any that collide exactly with
-	 * the time. I.e. if the booking ends at 1600, and the parameter "time"
-	 * is 1600, it will pass.
-	 * 
-	 * Gives a value of true if the times overlap. Help with this piece of
-	 * logic came from answers on the following thread:
-	 * https://stackoverflow.com/questions/325933/determine-whether-two-
-	 * date-ranges-overlap
-	 * 
-	 * For a range to overlap, the beginning of the FIRST range must be
-	 * before the end of the SECOND range and the end of the FIRST range
-	 * must be before the start of the SECOND range i.e. range overlaps
-	 * when !(StartA > EndB) && !(EndA < StartB)
-	 */
-	public void filterByTime(LocalTime time, int length) {
-		for (Booking b : bookings) {
-			boolean exp = !(b.getTime().getHour() > time.getHour() + length)
-					&& !(b.getTime().getHour() + b.getLength() < time.getHour());
-
-			if (exp) {
-				rooms.remove(b.getRoom());
-				continue;
-			}
+		Set<Integer> booked = new HashSet<Integer>();
+		for (Booking b : Booking.findByClient(cl)) {
+			booked.add(b.getRoomNumber());
 		}
+		rooms().removeIf(r -> !booked.contains(r.getRoomNumber()));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package bookings;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks over the rooms, which serialise the changes made to each
+ * room's bookings. Finding a free room never takes a lock. A booking is
+ * only made once the lock for its room is held and the room has been
+ * checked again, so two threads can never both book the same room for the
+ * same time.
+ */
+final class RoomLocks {
+	private static final int             STRIPES = 64;
+	private static final ReentrantLock[] locks   = new ReentrantLock[STRIPES];
+
+	static {
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	private RoomLocks() {
+	}
+
+	/**
+	 * @return The lock for the given room
+	 */
+	static ReentrantLock of(int roomNumber) {
+		return locks[stripe(roomNumber)];
+	}
+
+	/**
+	 * Locks every one of the given rooms. The stripes are always locked in
+	 * the same order, so two threads locking overlapping sets of rooms
+	 * can't deadlock.
+	 *
+	 * @return The locks that were taken, to pass to {@link #unlockAll}
+	 */
+	static List<ReentrantLock> lockAll(Collection<Integer> roomNumbers) {
+		TreeSet<Integer> stripes = new TreeSet<Integer>();
+		for (int roomNumber : roomNumbers) {
+			stripes.add(stripe(roomNumber));
+		}
+
+		ArrayList<ReentrantLock> taken = new ArrayList<ReentrantLock>(stripes.size());
+		for (int i : stripes) {
+			locks[i].lock();
+			taken.add(locks[i]);
+		}
+		return taken;
+	}
+
+	static void unlockAll(List<ReentrantLock> taken) {
+		for (ReentrantLock lock : taken) {
+			lock.unlock();
+		}
+	}
+
+	// Room numbers are often sequential, so they are spread out before
+	// picking a stripe
+	private static int stripe(int roomNumber) {
+		return (roomNumber * 0x9E3779B9 >>> 16) & (STRIPES - 1);
+	}
+}
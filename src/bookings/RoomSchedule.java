@@ -0,0 +1,172 @@
+package bookings;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Index of the bookings of one room, ordered by the minute they start at,
+ * counted from the epoch. Checking whether a room is free for a new booking
+ * only looks at the bookings that could overlap it, rather than at every
+ * booking in the system.
+ * <p>
+ * The schedules of all rooms are kept up to date by {@link Booking} as
+ * bookings are created and cancelled. Schedules can be read from any thread
+ * without locking, changes to a schedule are made one at a time.
+ */
+final class RoomSchedule {
+	private static final ConcurrentHashMap<Integer, RoomSchedule> schedules = new ConcurrentHashMap<Integer, RoomSchedule>();
+
+	private final ConcurrentSkipListMap<Long, Booking> byStart = new ConcurrentSkipListMap<Long, Booking>();
+	// Bookings that start at the same minute as one already in byStart. The
+	// system never makes these, but files saved by older versions can have
+	// them.
+	private final CopyOnWriteArrayList<Booking>        clashes = new CopyOnWriteArrayList<Booking>();
+	private volatile long                              longest;
+
+	/**
+	 * Gets the schedule for a room
+	 *
+	 * @return The room's schedule, or null if it has no bookings yet
+	 */
+	static RoomSchedule of(int roomNumber) {
+		return schedules.get(roomNumber);
+	}
+
+	/**
+	 * Adds a booking to its room's schedule
+	 */
+	static void add(Booking b) {
+		schedules.computeIfAbsent(b.getRoomNumber(), k -> new RoomSchedule()).put(b);
+	}
+
+	/**
+	 * Removes a booking from its room's schedule
+	 */
+	static void remove(Booking b) {
+		RoomSchedule s = schedules.get(b.getRoomNumber());
+		if (s != null) {
+			s.delete(b);
+		}
+	}
+
+	/**
+	 * Rebuilds every schedule from the given bookings
+	 */
+	static void rebuild(Iterable<Booking> bookings) {
+		schedules.clear();
+		for (Booking b : bookings) {
+			add(b);
+		}
+	}
+
+	/**
+	 * Checks whether a room has no bookings overlapping the given time
+	 *
+	 * @param roomNumber
+	 *            Room to check
+	 * @param date
+	 *            Date of the new booking
+	 * @param time
+	 *            Start time of the new booking
+	 * @param hours
+	 *            Length of the new booking in hours
+	 * @return True if the room is free for the whole time
+	 */
+	static boolean isFree(int roomNumber, LocalDate date, LocalTime time, int hours) {
+		long start = Booking.toMinute(date, time);
+		return isFree(roomNumber, start, start + hours * 60L);
+	}
+
+	/**
+	 * Checks whether a room has no bookings overlapping [start, end), in
+	 * minutes from the epoch
+	 */
+	static boolean isFree(int roomNumber, long start, long end) {
+		RoomSchedule s = schedules.get(roomNumber);
+		return s == null || s.isFree(start, end);
+	}
+
+	/*
+	 * Two ranges overlap when each one starts before the other one ends. A
+	 * booking which ends at exactly the time another starts does not
+	 * overlap it.
+	 *
+	 * Any booking overlapping [start, end) must start before end, and can't
+	 * start more than the longest booking in the schedule before start, so
+	 * only the bookings starting in that window are checked.
+	 */
+	boolean isFree(long start, long end) {
+		for (Booking b : byStart.subMap(start - longest, false, end, false).values()) {
+			if (b.getEndMinute() > start) {
+				return false;
+			}
+		}
+
+		for (Booking b : clashes) {
+			if (b.getStartMinute() < end && b.getEndMinute() > start) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Passes every booking in the schedule that overlaps [start, end) to the
+	 * given action
+	 */
+	void forEachOverlapping(long start, long end, Consumer<Booking> action) {
+		for (Booking b : byStart.subMap(start - longest, false, end, false).values()) {
+			if (b.getEndMinute() > start) {
+				action.accept(b);
+			}
+		}
+
+		for (Booking b : clashes) {
+			if (b.getStartMinute() < end && b.getEndMinute() > start) {
+				action.accept(b);
+			}
+		}
+	}
+
+	private synchronized void put(Booking b) {
+		longest = Math.max(longest, b.getLength() * 60L);
+
+		Booking old = byStart.putIfAbsent(b.getStartMinute(), b);
+		if (old == null) {
+			return;
+		}
+
+		// Keep whichever booking ends last in the map, as it covers the
+		// other one
+		if (b.getEndMinute() > old.getEndMinute()) {
+			byStart.put(b.getStartMinute(), b);
+			clashes.add(old);
+		} else {
+			clashes.add(b);
+		}
+	}
+
+	private synchronized void delete(Booking b) {
+		if (clashes.remove(b) || !byStart.remove(b.getStartMinute(), b)) {
+			return;
+		}
+
+		// Put back the longest clashing booking which started at the same
+		// time, if there is one
+		Booking next = null;
+		for (Booking c : clashes) {
+			if (c.getStartMinute() == b.getStartMinute()
+					&& (next == null || c.getEndMinute() > next.getEndMinute())) {
+				next = c;
+			}
+		}
+		if (next != null) {
+			clashes.remove(next);
+			byStart.put(next.getStartMinute(), next);
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package bookings;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Availability calendar which stores each room's day as a bitmap of 15
+ * minute slots. A day has 96 slots, which fit in two longs, so checking
+ * whether a room is free for a booking is a couple of mask ANDs, and
+ * finding which rooms are free scans every room's words for the day one
+ * after another.
+ * <p>
+ * Two bitmaps are kept for each room and day: {@code any} has a bit set for
+ * every slot a booking touches at all, {@code full} for every slot a
+ * booking covers completely. A booking that touches no {@code any} bits is
+ * certainly free, and one that touches a {@code full} bit is certainly
+ * not. Anything in between, which can only happen when bookings don't
+ * start on a quarter hour, is settled exactly by the {@link RoomSchedule}.
+ * <p>
+ * The calendar is rebuilt when the bookings load, and kept up to date by
+ * {@link Booking} as bookings are created and cancelled. Checks are made
+ * without locking, so a check made while a room is changing can be out of
+ * date. Bookings are always checked again against the {@link RoomSchedule}
+ * with the room locked before they are made.
+ */
+final class SlotCalendar {
+	private static final int SLOT_MINUTES    = 15;
+	private static final int MINUTES_PER_DAY = 24 * 60;
+	private static final int SLOTS_PER_DAY   = MINUTES_PER_DAY / SLOT_MINUTES;
+
+	// Bitmaps of every room for one day. Room i uses words 2i and 2i + 1.
+	// Changes to a day are made while holding its lock, and the arrays are
+	// replaced rather than resized so readers always see a whole array.
+	private static final class Day {
+		volatile long[] any  = new long[0];
+		volatile long[] full = new long[0];
+
+		void grow(int words) {
+			if (any.length < words) {
+				int size = Math.max(words, any.length * 2);
+				any = Arrays.copyOf(any, size);
+				full = Arrays.copyOf(full, size);
+			}
+		}
+	}
+
+	private static final ConcurrentHashMap<Long, Day>       days    = new ConcurrentHashMap<Long, Day>();
+	private static final ConcurrentHashMap<Integer, Integer> index   = new ConcurrentHashMap<Integer, Integer>();
+	private static volatile int[]                           numbers = new int[16];
+
+	private SlotCalendar() {
+	}
+
+	/**
+	 * Marks the slots of a booking as taken
+	 */
+	static void add(Booking b) {
+		int i = indexOf(b.getRoomNumber());
+		long start = b.getStartMinute();
+		long end = b.getEndMinute();
+
+		for (long day = Math.floorDiv(start, MINUTES_PER_DAY); day * MINUTES_PER_DAY < end; day++) {
+			mark(days.computeIfAbsent(day, k -> new Day()), i, start - day * MINUTES_PER_DAY,
+					end - day * MINUTES_PER_DAY);
+		}
+	}
+
+	/**
+	 * Clears the slots of a cancelled booking. The booking must already have
+	 * been removed from its {@link RoomSchedule}, as the room's other
+	 * bookings on the same days are marked again from there.
+	 */
+	static void remove(Booking b) {
+		int i = indexOf(b.getRoomNumber());
+		RoomSchedule schedule = RoomSchedule.of(b.getRoomNumber());
+		long start = b.getStartMinute();
+		long end = b.getEndMinute();
+
+		for (long day = Math.floorDiv(start, MINUTES_PER_DAY); day * MINUTES_PER_DAY < end; day++) {
+			Day d = days.get(day);
+			if (d == null) {
+				continue;
+			}
+
+			synchronized (d) {
+				if (d.any.length <= 2 * i + 1) {
+					continue;
+				}
+
+				d.any[2 * i] = d.any[2 * i + 1] = 0;
+				d.full[2 * i] = d.full[2 * i + 1] = 0;
+				if (schedule != null) {
+					long from = day * MINUTES_PER_DAY;
+					schedule.forEachOverlapping(from, from + MINUTES_PER_DAY,
+							o -> mark(d, i, o.getStartMinute() - from, o.getEndMinute() - from));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the calendar from the given bookings
+	 */
+	static void rebuild(Iterable<Booking> bookings) {
+		days.clear();
+		index.clear();
+		for (Booking b : bookings) {
+			add(b);
+		}
+	}
+
+	/**
+	 * Checks whether a room is free for the whole of the given time
+	 */
+	static boolean isFree(int roomNumber, LocalDate date, LocalTime time, int hours) {
+		long start = Booking.toMinute(date, time);
+		return isFree(roomNumber, start, start + hours * 60L);
+	}
+
+	/**
+	 * Checks whether a room is free for the whole of [start, end), in
+	 * minutes from the epoch
+	 */
+	static boolean isFree(int roomNumber, long start, long end) {
+		Integer i = index.get(roomNumber);
+		if (i == null) {
+			return true;
+		}
+
+		boolean unsure = false;
+
+		for (long day = Math.floorDiv(start, MINUTES_PER_DAY); day * MINUTES_PER_DAY < end; day++) {
+			Day d = days.get(day);
+			if (d == null) {
+				continue;
+			}
+
+			long[] any = d.any;
+			long[] full = d.full;
+			if (any.length <= 2 * i + 1 || full.length <= 2 * i + 1) {
+				continue;
+			}
+
+			long from = day * MINUTES_PER_DAY;
+			long m0 = mask(start - from, end - from, 0);
+			long m1 = mask(start - from, end - from, 1);
+			if ((full[2 * i] & m0) != 0 || (full[2 * i + 1] & m1) != 0) {
+				return false;
+			}
+			unsure |= (any[2 * i] & m0) != 0 || (any[2 * i + 1] & m1) != 0;
+		}
+
+		return !unsure || RoomSchedule.isFree(roomNumber, start, end);
+	}
+
+	/**
+	 * Finds every room with a booking overlapping the given time, by
+	 * scanning the bitmaps of all rooms for each day the time covers
+	 *
+	 * @return The numbers of the rooms which are not free
+	 */
+	static Set<Integer> busyRooms(LocalDate date, LocalTime time, int hours) {
+		long start = Booking.toMinute(date, time);
+		long end = start + hours * 60L;
+		HashSet<Integer> busy = new HashSet<Integer>();
+
+		for (long day = Math.floorDiv(start, MINUTES_PER_DAY); day * MINUTES_PER_DAY < end; day++) {
+			Day d = days.get(day);
+			if (d == null) {
+				continue;
+			}
+
+			long[] any = d.any;
+			long[] full = d.full;
+			int[] rooms = numbers;
+			long from = day * MINUTES_PER_DAY;
+			long m0 = mask(start - from, end - from, 0);
+			long m1 = mask(start - from, end - from, 1);
+			for (int w = 0; w + 1 < Math.min(any.length, full.length); w += 2) {
+				if ((any[w] & m0) == 0 && (any[w + 1] & m1) == 0) {
+					continue;
+				}
+
+				int room = rooms[w / 2];
+				if ((full[w] & m0) != 0 || (full[w + 1] & m1) != 0
+						|| !RoomSchedule.isFree(room, date, time, hours)) {
+					busy.add(room);
+				}
+			}
+		}
+
+		return busy;
+	}
+
+	/**
+	 * Sets the bits for the part of [start, end) that falls on the given
+	 * day. Both are in minutes from the start of the day, and can be
+	 * outside of it.
+	 */
+	private static void mark(Day d, int i, long start, long end) {
+		synchronized (d) {
+			d.grow(2 * i + 2);
+			d.any[2 * i] |= mask(start, end, 0);
+			d.any[2 * i + 1] |= mask(start, end, 1);
+
+			// Round inwards, so only slots the booking fills completely are
+			// set
+			long first = Math.floorDiv(start + SLOT_MINUTES - 1, SLOT_MINUTES) * SLOT_MINUTES;
+			long last = Math.floorDiv(end, SLOT_MINUTES) * SLOT_MINUTES;
+			d.full[2 * i] |= mask(first, last, 0);
+			d.full[2 * i + 1] |= mask(first, last, 1);
+		}
+	}
+
+	/**
+	 * Gets the bits of one word of a day's bitmap for every slot that
+	 * overlaps [start, end)
+	 *
+	 * @param word
+	 *            0 for slots 0-63, 1 for slots 64-95
+	 */
+	private static long mask(long start, long end, int word) {
+		if (end <= start) {
+			return 0;
+		}
+
+		long from = Math.max(Math.floorDiv(start, SLOT_MINUTES), word * 64);
+		long to = Math.min(Math.floorDiv(end - 1, SLOT_MINUTES) + 1, Math.min(SLOTS_PER_DAY, word * 64 + 64));
+		if (from >= to) {
+			return 0;
+		}
+
+		int count = (int) (to - from);
+		long bits = count == 64 ? -1L : (1L << count) - 1;
+		return bits << (from - word * 64);
+	}
+
+	/**
+	 * @return The position of a room's words in each day, adding the room if
+	 *         it hasn't been seen before
+	 */
+	private static int indexOf(int roomNumber) {
+		Integer i = index.get(roomNumber);
+		return i != null ? i : register(roomNumber);
+	}
+
+	private static synchronized int register(int roomNumber) {
+		Integer i = index.get(roomNumber);
+		if (i == null) {
+			i = index.size();
+			int[] grown = i < numbers.length ? numbers : Arrays.copyOf(numbers, numbers.length * 2);
+			grown[i] = roomNumber;
+			numbers = grown;
+			index.put(roomNumber, i);
+		}
+		return i;
+	}
+}
@@ -2,22 +2,42 @@ package clients;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.time.LocalDate;
-import java.time.LocalTime;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JOptionPane;
 
 import fileio.FileIO;
+import fileio.Journal;
+import fileio.RecordCodec;
+import fileio.RecordHeader;
+import metrics.Metrics;
 import ui.Input;
 import ui.Output;
 
 @SuppressWarnings("unused")
 public class Client implements Serializable, Comparable<Client> {
-	private static HashMap<Integer, Client> clients;
-	private static int                      idCount;
+	private static Map<Integer, Client>     clients;
+	private static Journal<Integer, Client> journal;
+	private static final AtomicInteger      idCount          = new AtomicInteger();
 	private static final long               serialVersionUID = 1L;
-	private static final String             PATH             = "clients.bin";
+	private static final String             PATH             = FileIO.dataPath("clients.bin");
+	private static final String             NOT_SUPPLIED     = "Not Supplied";
+	private static final int                SEARCH_RESULTS   = 20;
+	private static final String             ADD_NEW          = "Add New Client";
+	private static final String             SEARCH_AGAIN     = "Search Again";
+
+	// Clients by their normalised telephone number and email address, so
+	// that finding a client or checking for a duplicate doesn't look at
+	// every client
+	private static final ConcurrentHashMap<String, Client> byPhone = new ConcurrentHashMap<String, Client>();
+	private static final ConcurrentHashMap<String, Client> byEmail = new ConcurrentHashMap<String, Client>();
 
 	private int    clientID;
 	private String fname;
@@ -26,16 +46,41 @@ public class Client implements Serializable, Comparable<Client> {
 	private String email;
 
 	static {
-		clients = new HashMap<Integer, Client>();
+		long start = System.nanoTime();
+		clients = new ConcurrentHashMap<Integer, Client>();
+		journal = new Journal<Integer, Client>(PATH, clients, new Codec(), idCount::get);
 		Output.console("Atttempting to load Clients file...");
 		
 		try {
-			unpack(FileIO.load(PATH));
+			RecordHeader header = journal.load(Client::unpack);
+			if (header != null) {
+				idCount.set((int) header.getSequence());
+				Output.console("Loaded %s clients (File updated %s)", header.getCount(), header.getSaved());
+			}
 		} catch (ClassNotFoundException e) {
 			e.printStackTrace();
 		} catch(IOException e) {
 			e.printStackTrace();
 		}
+		
+		// Clients added since the last snapshot are only in the journal, and
+		// older versions of the system mapped each client by the ID after
+		// its own, so the clients are mapped by their real ID again here.
+		ArrayList<Client> loaded = new ArrayList<Client>(clients.values());
+		clients.clear();
+		for (Client c : loaded) {
+			idCount.accumulateAndGet(c.clientID + 1, Math::max);
+			clients.put(c.clientID, c);
+			index(c);
+		}
+		ClientIndex.rebuild(clients.values());
+		Metrics.timer("load.clients").record(start);
+	}
+	
+	/**
+	 * Used by the codec to build clients loaded from file
+	 */
+	private Client() {
 	}
 
 	/**
@@ -59,22 +104,55 @@ public class Client implements Serializable, Comparable<Client> {
 		this.lname = lname;
 		this.telephone = telephone;
 		this.email = email;
-		this.clientID = idCount++;
 
-		if (clientExists(this)) { throw new ExistingClientException(); }
+		// The journal is locked while checking for an existing client, so
+		// two clients with the same details can't be added at once
+		synchronized (journal) {
+			Client existing = findByPhone(telephone);
+			existing = existing == null ? findByEmail(email) : existing;
+			if (existing != null) { throw new ExistingClientException(existing); }
 
-		clients.put(idCount, this);
-		try {
-			save();
-		} catch (IOException e) {
-			Output.consoleError("Failed trying to save Clients");
-			e.printStackTrace();
+			this.clientID = idCount.getAndIncrement();
+			try {
+				journal.put(this.clientID, this);
+			} catch (IOException e) {
+				Output.consoleError("Failed trying to save Clients");
+				e.printStackTrace();
+			}
+			index(this);
+			ClientIndex.add(this);
 		}
 	}
 	
-	private Client(String fname, String lname)
+	/**
+	 * Adds a client to the system
+	 * 
+	 * @param fname
+	 *            Clients first name
+	 * @param lname
+	 *            Clients last name
+	 * @param telephone
+	 *            Clients telephone number - can be null, but then email is
+	 *            required
+	 * @param email
+	 *            Clients email - can be null, but then telephone is
+	 *            required
+	 * @return The new client
+	 * @throws ExistingClientException
+	 *             If a client already has the telephone number or email
+	 * @throws IllegalArgumentException
+	 *             If a name is blank or neither a telephone number nor an
+	 *             email is given
+	 */
+	public static Client create(String fname, String lname, String telephone, String email)
 			throws ExistingClientException {
-		this(fname, lname, Input.getClientTelephone(), Input.getClientEmail());
+		if (fname == null || fname.trim().isEmpty() || lname == null || lname.trim().isEmpty()) {
+			throw new IllegalArgumentException("A client needs a first and last name");
+		}
+		if (normalisePhone(telephone) == null && normaliseEmail(email) == null) {
+			throw new IllegalArgumentException("A client needs a telephone number and/or email");
+		}
+		return new Client(fname, lname, telephone, email);
 	}
 
 	/**
@@ -103,7 +181,7 @@ public class Client implements Serializable, Comparable<Client> {
 				telephone = Input.getClientTelephone();
 				email = Input.getClientEmail();
 
-				if (telephone == null && email == null) {
+				if (normalisePhone(telephone) == null && normaliseEmail(email) == null) {
 					Output.consoleWarn(
 							"You must supply a telephone number and/or email");
 					valid = false;
@@ -122,12 +200,50 @@ public class Client implements Serializable, Comparable<Client> {
 				.getYesNo("Please confirm the following details:\n" + str));
 
 		try {
-			Client c = new Client(fname, lname, telephone, email);
+			Client c = create(fname, lname, telephone, email);
 			Output.console("Added new client with details\n" + str);
 			return c;
 		} catch (ExistingClientException e) {
 			Output.userError("The client details you entered already exist");
-			return email == null ? findByPhone(telephone) : findByEmail(email);
+			return e.getExisting();
+		}
+	}
+
+	/**
+	 * Asks the user to search for a client by name or email address, and
+	 * pick one of the closest matches from the {@link ClientIndex}
+	 * 
+	 * @param allowNew
+	 *            Whether to offer adding a new client instead
+	 * @return The client picked or added, or null if the user cancelled
+	 */
+	public static Client selectClient(boolean allowNew) {
+		while (true) {
+			String query = JOptionPane.showInputDialog(null,
+					"Search for a client by name or email address", "Find Client",
+					JOptionPane.QUESTION_MESSAGE);
+			if (query == null) {
+				return null;
+			}
+
+			List<Client> matches = ClientIndex.search(query, SEARCH_RESULTS);
+			ArrayList<Object> options = new ArrayList<Object>(matches);
+			if (allowNew) {
+				options.add(ADD_NEW);
+			}
+			options.add(SEARCH_AGAIN);
+
+			Object selection = JOptionPane.showInputDialog(null,
+					matches.isEmpty() ? "No clients match \"" + query + "\"" : "Select Client", "Select Client",
+					JOptionPane.INFORMATION_MESSAGE, null, options.toArray(), options.get(0));
+
+			if (selection == null) {
+				return null;
+			} else if (selection instanceof Client) {
+				return (Client) selection;
+			} else if (selection == ADD_NEW) {
+				return addClient();
+			}
 		}
 	}
 
@@ -145,7 +261,7 @@ public class Client implements Serializable, Comparable<Client> {
 	 * 
 	 * @return the total number of clients as an int
 	 */
-	public static int getCount() { return idCount; }
+	public static int getCount() { return idCount.get(); }
 
 	/**
 	 * Changes a clients phone number
@@ -164,33 +280,40 @@ public class Client implements Serializable, Comparable<Client> {
 	private void setEmail(String email) { this.email = email; }
 
 	/**
-	 * Finds a client with the given telephone number
+	 * Finds a client with the given ID
+	 * 
+	 * @return The client, or null if there is no client with that ID
 	 */
-	public static Client findByPhone(String telephone) {
-		for (Client c : clients.values()) {
-			if (c.telephone != null && c.telephone.equals(telephone)) {
-				return c;
-			}
-		}
+	public static Client findByID(int clientID) {
+		return clients.get(clientID);
+	}
+	
+	/**
+	 * @return The ID of the client
+	 */
+	public int getID() { return this.clientID; }
 
-		return null;
+	/**
+	 * Finds a client with the given telephone number. Spaces, dashes and
+	 * brackets in the number are ignored.
+	 */
+	public static Client findByPhone(String telephone) {
+		String key = normalisePhone(telephone);
+		return key == null ? null : byPhone.get(key);
 	}
 
 	/**
-	 * Finds a client with the given email address
+	 * Finds a client with the given email address, ignoring case
 	 */
 	public static Client findByEmail(String email) {
-		for (Client c : clients.values()) {
-			if (c.email != null && c.email.equals(email)) { return c; }
-		}
-
-		return null;
+		String key = normaliseEmail(email);
+		return key == null ? null : byEmail.get(key);
 	}
 
 	/**
 	 * Checks whether a given client already exists in the system. Does
-	 * this by comparing the given client to all clients in the clients
-	 * list.
+	 * this by looking up the client's telephone number and email address
+	 * in the indexes. A missing number or address never matches.
 	 * 
 	 * @param c
 	 *            Client to search for
@@ -201,40 +324,68 @@ public class Client implements Serializable, Comparable<Client> {
 	}
 
 	/**
-	 * Unpacks a hash map loaded from a file
+	 * Adds a client to the telephone and email indexes. If clients saved by
+	 * an older version of the system share a number or address, the first
+	 * one keeps it.
+	 */
+	private static void index(Client c) {
+		String phone = normalisePhone(c.telephone);
+		if (phone != null) {
+			byPhone.putIfAbsent(phone, c);
+		}
+
+		String email = normaliseEmail(c.email);
+		if (email != null) {
+			byEmail.putIfAbsent(email, c);
+		}
+	}
+
+	/**
+	 * @return The digits of a telephone number, with a leading + kept, or
+	 *         null if it wasn't supplied
+	 */
+	static String normalisePhone(String telephone) {
+		if (telephone == null || telephone.equals(NOT_SUPPLIED)) {
+			return null;
+		}
+
+		StringBuilder digits = new StringBuilder(telephone.length());
+		for (int i = 0; i < telephone.length(); i++) {
+			char ch = telephone.charAt(i);
+			if (Character.isDigit(ch) || (ch == '+' && digits.length() == 0)) {
+				digits.append(ch);
+			}
+		}
+		return digits.length() == 0 ? null : digits.toString();
+	}
+
+	/**
+	 * @return The email address trimmed and in lower case, or null if it
+	 *         wasn't supplied
+	 */
+	static String normaliseEmail(String email) {
+		if (email == null || email.equals(NOT_SUPPLIED)) {
+			return null;
+		}
+
+		String key = email.trim().toLowerCase(Locale.ROOT);
+		return key.isEmpty() ? null : key;
+	}
+
+	/**
+	 * Unpacks a hash map loaded from a file saved by an older version of
+	 * the system
 	 */
 	@SuppressWarnings("unchecked")
 	private static void unpack(HashMap<Object, Object> hashMap) {
 		if (hashMap == null) { return; }
-		clients = (HashMap<Integer, Client>) hashMap.get("clients");
-		idCount = (int) hashMap.get("count");
+		clients.putAll((HashMap<Integer, Client>) hashMap.get("clients"));
+		idCount.set((int) hashMap.get("count"));
 
 		Output.console("Loaded %s clients (File updated %s, %s", idCount,
 				hashMap.get("date"), hashMap.get("time") + ")");
 	}
 
-	/**
-	 * Saves the clients to a file with the following information
-	 * <ol>
-	 * <li>The amount of clients</li>
-	 * <li>A map with all of the clients</li>
-	 * <li>The date the file was saved</li>
-	 * <li>The time the file was saved</li>
-	 * </ol>
-	 * 
-	 * @throws IOException
-	 */
-	private static void save()
-			throws IOException {
-		HashMap<String, Object> dat = new HashMap<String, Object>();
-		dat.put("count", idCount);
-		dat.put("clients", clients);
-		dat.put("date", LocalDate.now());
-		dat.put("time", LocalTime.now());
-
-		FileIO.save(dat, PATH);
-	}
-
 	@Override
 	public int compareTo(Client o) {
 		return this.lname.compareTo(o.lname);
@@ -272,4 +423,50 @@ public class Client implements Serializable, Comparable<Client> {
 		
 		return "NO EMAIL SUPPLIED";
 	}
+
+	/**
+	 * @return The email address as it was given, or null if there isn't
+	 *         one, unlike {@link #getEmail} which fills in a placeholder
+	 */
+	String getEmailOrNull() {
+		return this.email;
+	}
+	
+	/**
+	 * Saves clients as [client ID (4 bytes)] followed by the first name,
+	 * last name, telephone and email as length-prefixed strings
+	 */
+	private static final class Codec implements RecordCodec<Integer, Client> {
+		@Override
+		public short version() { return 1; }
+
+		@Override
+		public Integer keyOf(Client c) { return c.clientID; }
+
+		@Override
+		public int size(Client c) {
+			return 4 + RecordCodec.sizeOf(c.fname) + RecordCodec.sizeOf(c.lname)
+					+ RecordCodec.sizeOf(c.telephone) + RecordCodec.sizeOf(c.email);
+		}
+
+		@Override
+		public void write(Client c, ByteBuffer buf) {
+			buf.putInt(c.clientID);
+			RecordCodec.putString(buf, c.fname);
+			RecordCodec.putString(buf, c.lname);
+			RecordCodec.putString(buf, c.telephone);
+			RecordCodec.putString(buf, c.email);
+		}
+
+		@Override
+		public Client read(ByteBuffer buf, short version) {
+			Client c = new Client();
+			c.clientID = buf.getInt();
+			c.fname = RecordCodec.getString(buf);
+			c.lname = RecordCodec.getString(buf);
+			c.telephone = RecordCodec.getString(buf);
+			c.email = RecordCodec.getString(buf);
+			return c;
+		}
+	}
 }
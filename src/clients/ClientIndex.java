@@ -0,0 +1,281 @@
+package clients;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Search index over the names and email addresses of every client, so a
+ * client can be picked by typing part of their name rather than scrolling
+ * through a list of every client.
+ * <p>
+ * Each word of a client's first name, last name and email address is kept
+ * in a sorted map, so the clients with a word starting with what was typed
+ * are found by reading one range of the map. If that doesn't find enough
+ * clients, clients are also found by the three letter sequences their
+ * names share with what was typed, which copes with spelling mistakes.
+ * Only the clients sharing the rarest of those sequences are scored, so a
+ * sequence that nearly every name has doesn't make every client a
+ * candidate.
+ * <p>
+ * Clients are stored by ID in the index and looked up when found. The
+ * index is rebuilt when the clients load and kept up to date by
+ * {@link Client} as clients are added. It can be searched from any thread
+ * while clients are being added.
+ */
+public final class ClientIndex {
+	private static final int    GRAM       = 3;
+	// How alike a name must be to what was typed to be found by the fuzzy
+	// search, from 0 to 1
+	private static final double MIN_SCORE  = 0.3;
+	// Rough number of clients the fuzzy search scores
+	private static final int    CANDIDATES = 2000;
+
+	private static final ConcurrentSkipListMap<String, Postings> words = new ConcurrentSkipListMap<String, Postings>();
+	private static final ConcurrentHashMap<String, Postings>     grams = new ConcurrentHashMap<String, Postings>();
+	// Number of distinct sequences in each client's name, by client ID
+	private static volatile int[]                                gramCounts = new int[16];
+
+	/*
+	 * A growable list of client IDs. It is only added to while locked, and
+	 * the size is written after the ID, so readers which read size() before
+	 * ids() always see a whole list without locking.
+	 */
+	private static final class Postings {
+		private volatile int[] ids = new int[2];
+		private volatile int   size;
+
+		synchronized void add(int id) {
+			int[] a = ids;
+			if (size == a.length) {
+				a = Arrays.copyOf(a, a.length * 2);
+				ids = a;
+			}
+			a[size] = id;
+			size = size + 1;
+		}
+
+		int size() { return size; }
+
+		int[] ids() { return ids; }
+	}
+
+	private ClientIndex() {
+	}
+
+	/**
+	 * Adds a client to the index
+	 */
+	static void add(Client c) {
+		int id = c.getID();
+		for (String word : words(c)) {
+			words.computeIfAbsent(word, k -> new Postings()).add(id);
+		}
+
+		List<String> own = grams(c.getFName() + " " + c.getLName());
+		setGramCount(id, own.size());
+		for (String gram : own) {
+			grams.computeIfAbsent(gram, k -> new Postings()).add(id);
+		}
+	}
+
+	private static synchronized void setGramCount(int id, int count) {
+		int[] counts = gramCounts;
+		if (id >= counts.length) {
+			counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+		}
+		counts[id] = count;
+		gramCounts = counts;
+	}
+
+	/**
+	 * Rebuilds the index from the given clients
+	 */
+	static void rebuild(Iterable<Client> clients) {
+		words.clear();
+		grams.clear();
+		for (Client c : clients) {
+			add(c);
+		}
+	}
+
+	/**
+	 * Finds the clients best matching what the user typed. Clients with a
+	 * word in their name or email address starting with each word typed
+	 * come first, followed by the clients whose names are spelt most like
+	 * it.
+	 *
+	 * @param query
+	 *            Part of a client's name or email address
+	 * @param limit
+	 *            Most clients to return
+	 * @return Up to {@code limit} clients, best match first
+	 */
+	public static List<Client> search(String query, int limit) {
+		List<String> terms = split(query);
+		LinkedHashSet<Client> found = new LinkedHashSet<Client>();
+		if (terms.isEmpty() || limit <= 0) {
+			return new ArrayList<Client>(found);
+		}
+
+		// Read the range for the longest word, as it has the fewest clients,
+		// and check the other words against each client found
+		String longest = terms.get(0);
+		for (String term : terms) {
+			if (term.length() > longest.length()) {
+				longest = term;
+			}
+		}
+
+		for (Postings p : words.subMap(longest, true, longest + Character.MAX_VALUE, false).values()) {
+			int size = p.size();
+			int[] ids = p.ids();
+			for (int i = 0; i < size; i++) {
+				Client c = Client.findByID(ids[i]);
+				if (c != null && matchesAll(c, terms)) {
+					found.add(c);
+					if (found.size() == limit) {
+						return new ArrayList<Client>(found);
+					}
+				}
+			}
+		}
+
+		for (Client c : fuzzy(query, limit)) {
+			if (found.size() == limit) {
+				break;
+			}
+			found.add(c);
+		}
+		return new ArrayList<Client>(found);
+	}
+
+	/**
+	 * Finds the clients whose names share the most three letter sequences
+	 * with the query, scored by the Dice coefficient of the two sets.
+	 * Candidates are taken from the rarest sequences first, until there are
+	 * enough of them, then every sequence is counted for those candidates.
+	 */
+	private static List<Client> fuzzy(String query, int limit) {
+		List<String> wanted = grams(query);
+		ArrayList<Postings> lists = new ArrayList<Postings>();
+		for (String gram : wanted) {
+			Postings p = grams.get(gram);
+			if (p != null) {
+				lists.add(p);
+			}
+		}
+		lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+		HashMap<Integer, Integer> shared = new HashMap<Integer, Integer>();
+		for (Postings p : lists) {
+			boolean open = shared.size() < CANDIDATES;
+			int size = p.size();
+			int[] ids = p.ids();
+			for (int i = 0; i < size; i++) {
+				if (open) {
+					shared.merge(ids[i], 1, Integer::sum);
+				} else {
+					shared.computeIfPresent(ids[i], (k, n) -> n + 1);
+				}
+			}
+		}
+
+		int[] counts = gramCounts;
+		PriorityQueue<Map.Entry<Client, Double>> best = new PriorityQueue<Map.Entry<Client, Double>>(
+				Map.Entry.comparingByValue());
+		for (Map.Entry<Integer, Integer> e : shared.entrySet()) {
+			Client c = Client.findByID(e.getKey());
+			if (c == null || e.getKey() >= counts.length) {
+				continue;
+			}
+
+			double score = 2.0 * e.getValue() / (wanted.size() + counts[e.getKey()]);
+			if (score >= MIN_SCORE) {
+				best.add(Map.entry(c, score));
+				if (best.size() > limit) {
+					best.poll();
+				}
+			}
+		}
+
+		ArrayList<Client> ranked = new ArrayList<Client>(best.size());
+		while (!best.isEmpty()) {
+			ranked.add(0, best.poll().getKey());
+		}
+		return ranked;
+	}
+
+	private static boolean matchesAll(Client c, List<String> terms) {
+		List<String> own = words(c);
+		for (String term : terms) {
+			boolean match = false;
+			for (String word : own) {
+				if (word.startsWith(term)) {
+					match = true;
+					break;
+				}
+			}
+			if (!match) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static List<String> words(Client c) {
+		List<String> all = split(c.getFName());
+		all.addAll(split(c.getLName()));
+		all.addAll(split(Client.normaliseEmail(c.getEmailOrNull())));
+		return all;
+	}
+
+	/**
+	 * Splits text into lower case words of letters and digits
+	 */
+	private static List<String> split(String text) {
+		ArrayList<String> found = new ArrayList<String>(4);
+		if (text == null) {
+			return found;
+		}
+
+		String lower = text.toLowerCase(Locale.ROOT);
+		int start = -1;
+		for (int i = 0; i <= lower.length(); i++) {
+			boolean letter = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+			if (letter && start < 0) {
+				start = i;
+			} else if (!letter && start >= 0) {
+				found.add(lower.substring(start, i));
+				start = -1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return The distinct three letter sequences of each word in the text,
+	 *         with the start of each word marked so short words still have
+	 *         some
+	 */
+	private static List<String> grams(String text) {
+		LinkedHashSet<String> found = new LinkedHashSet<String>();
+		for (String word : split(text)) {
+			String padded = "$" + word;
+			for (int i = 0; i + GRAM <= padded.length(); i++) {
+				found.add(padded.substring(i, i + GRAM));
+			}
+			if (padded.length() < GRAM) {
+				found.add(padded);
+			}
+		}
+		return new ArrayList<String>(found);
+	}
+}
@@ -1,8 +1,20 @@
 package clients;
 
+/**
+ * Thrown when a client being added has the same telephone number or email
+ * address as a client already in the system
+ */
 @SuppressWarnings("serial")
-class ExistingClientException extends Exception{
-	ExistingClientException(){
-		super();
+public class ExistingClientException extends Exception{
+	private final transient Client existing;
+	
+	public ExistingClientException(Client existing){
+		super("Client " + existing + " already has these details");
+		this.existing = existing;
 	}
+	
+	/**
+	 * @return The client already in the system
+	 */
+	public Client getExisting() { return this.existing; }
 }
@@ -6,17 +6,49 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.function.Consumer;
 
+import metrics.Metrics;
+import metrics.StoreEvent;
+import metrics.Timer;
 import ui.Output;
 
 /**
- * Loads and saves HashMap<Object, Object> objects from files in the
- * Room Booking System
+ * Loads and saves the stores of the Room Booking System.
+ * <p>
+ * Stores are saved as a {@link RecordHeader} followed by one
+ * length-prefixed record per room, client or booking, encoded by a
+ * {@link RecordCodec}. Files from older versions of the system hold a
+ * serialized HashMap&lt;Object, Object&gt; instead, these can still be
+ * read with {@link #load} so that they can be migrated.
+ * <p>
+ * The stores are kept in the working folder, or in the folder named by the
+ * {@code data.dir} system property if it is set, see {@link #dataPath}.
  * @author 560505
  *
  */
 public final class FileIO {
+	private static final int   BUFFER_SIZE = 1 << 16;
+	private static final Timer SNAPSHOT    = Metrics.timer("save.snapshot");
+
+	/**
+	 * Gets the path of a store file, in the {@code data.dir} folder if one
+	 * is set
+	 */
+	public static String dataPath(String name) {
+		String dir = System.getProperty("data.dir");
+		return dir == null || dir.isEmpty() ? name : Paths.get(dir, name).toString();
+	}
+
 	@SuppressWarnings("unchecked")
 	public static HashMap<Object, Object> load(String PATH) throws ClassNotFoundException, IOException{
 		File file = new File(PATH);
@@ -38,10 +70,161 @@ public final class FileIO {
 		}
 	}
 	
+	/**
+	 * Saves a map to the given file. The map is written to a temporary file
+	 * first and then moved over the old one, so a crash part way through
+	 * never leaves a half written file behind.
+	 */
 	public static boolean save(HashMap<String, Object> data, String PATH) throws IOException {
-		try (ObjectOutputStream in = new ObjectOutputStream(new FileOutputStream(PATH))) {
+		String tmp = PATH + ".tmp";
+		try (FileOutputStream fos = new FileOutputStream(tmp);
+				ObjectOutputStream in = new ObjectOutputStream(fos)) {
 			in.writeObject(data);
-			return true;
+			in.flush();
+			fos.getFD().sync();
+		}
+		
+		Files.move(Paths.get(tmp), Paths.get(PATH), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		return true;
+	}
+	
+	/**
+	 * Checks whether a file was written with Java serialization by an older
+	 * version of the system, rather than by {@link #saveRecords}
+	 * 
+	 * @return True if the file starts with the serialization stream magic
+	 *         number
+	 */
+	public static boolean isLegacy(String PATH) throws IOException {
+		Path path = Paths.get(PATH);
+		if (!Files.exists(path) || Files.size(path) < 2) {
+			return false;
+		}
+		
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(2);
+			ch.read(magic, 0);
+			return magic.getShort(0) == (short) 0xACED;
+		}
+	}
+	
+	/**
+	 * Keeps a copy of a legacy file as {@code <PATH>.legacy} before it is
+	 * replaced by the new format
+	 */
+	public static void keepLegacyCopy(String PATH) throws IOException {
+		Files.copy(Paths.get(PATH), Paths.get(PATH + ".legacy"), StandardCopyOption.REPLACE_EXISTING);
+		Output.console("Migrating %s to the new file format, the old file is kept as %s.legacy", PATH, PATH);
+	}
+	
+	/**
+	 * Reads every record in a file written by {@link #saveRecords}
+	 * 
+	 * @param PATH
+	 *            File to load
+	 * @param codec
+	 *            Codec used to decode each record
+	 * @param sink
+	 *            Receives each record as it is read
+	 * @return The header of the file, or null if the file is empty
+	 * @throws IOException
+	 *             If the file isn't in the expected format
+	 */
+	public static <K, V> RecordHeader loadRecords(String PATH, RecordCodec<K, V> codec, Consumer<V> sink)
+			throws IOException {
+		File file = new File(PATH);
+		if(!file.exists()) {
+			Output.console(PATH + " doesnt exist, creating");
+			file.createNewFile();
+		}
+		
+		if(file.length() == 0) {
+			Output.console(PATH + " is empty, aborting load.");
+			return null;
+		}
+		
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocate(RecordHeader.SIZE);
+			while (buf.hasRemaining() && ch.read(buf) >= 0);
+			buf.flip();
+			
+			RecordHeader header = RecordHeader.read(buf);
+			if (header == null) {
+				throw new IOException(PATH + " is not a records file");
+			}
+			
+			RecordReader reader = new RecordReader(ch, RecordHeader.SIZE);
+			int count = 0;
+			ByteBuffer record;
+			while ((record = reader.next()) != null) {
+				sink.accept(codec.read(record, header.getVersion()));
+				count++;
+			}
+			
+			if (count != header.getCount()) {
+				Output.consoleWarn("%s should hold %s records but only %s could be read", PATH,
+						header.getCount(), count);
+			}
+			return header;
+		}
+	}
+	
+	/**
+	 * Saves records to a file. Like {@link #save} the file is written to a
+	 * temporary file first and then moved into place.
+	 * 
+	 * @param PATH
+	 *            File to save to
+	 * @param codec
+	 *            Codec used to encode each record
+	 * @param values
+	 *            The records to save. Must not change while they are saved.
+	 * @param sequence
+	 *            A counter to keep in the header, such as the next ID
+	 * @throws IOException
+	 */
+	public static <K, V> void saveRecords(String PATH, RecordCodec<K, V> codec, Collection<V> values,
+			long sequence) throws IOException {
+		long start = System.nanoTime();
+		StoreEvent event = new StoreEvent();
+		event.begin();
+		Path tmp = Paths.get(PATH + ".tmp");
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			new RecordHeader(codec.version(), values.size(), sequence, System.currentTimeMillis()).write(buf);
+			
+			for (V value : values) {
+				int size = codec.size(value);
+				if (buf.remaining() < 4 + size) {
+					drain(ch, buf);
+					if (buf.capacity() < 4 + size) {
+						buf = ByteBuffer.allocate(4 + size);
+					}
+				}
+				
+				buf.putInt(size);
+				codec.write(value, buf);
+			}
+			
+			drain(ch, buf);
+			ch.force(true);
+		}
+		
+		Files.move(tmp, Paths.get(PATH), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		SNAPSHOT.record(start);
+		event.finish("snapshot", PATH, values.size());
+	}
+	
+	/**
+	 * Writes everything in the buffer to the channel and clears it
+	 */
+	static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			ch.write(buf);
 		}
+		buf.clear();
 	}
 }
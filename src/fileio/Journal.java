@@ -0,0 +1,541 @@
+package fileio;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import metrics.Metrics;
+import metrics.StoreEvent;
+import metrics.Timer;
+import ui.Output;
+
+/**
+ * Append-only log of the changes made to one of the stores in the Room
+ * Booking System.
+ * <p>
+ * Instead of rewriting a whole store every time a room, client or booking
+ * changes, each change is appended to {@code <PATH>.log} as a small record.
+ * On startup the log is replayed over the last snapshot written by
+ * {@link FileIO#saveRecords}. Once the log grows past the compaction
+ * threshold it is folded into a new snapshot on a background thread.
+ * <p>
+ * The log starts with a magic number and the version of the record layout,
+ * followed by records in the format [length (4 bytes)][operation (1
+ * byte)][record encoded by the store's {@link RecordCodec}].
+ * <p>
+ * Behaviour can be changed with the following system properties:
+ * <ul>
+ * <li>{@code fileio.journal} - set to false to rewrite the snapshot on
+ * every change, as the system used to</li>
+ * <li>{@code fileio.journal.fsync} - set to true to force every record to
+ * disk before the change returns</li>
+ * <li>{@code fileio.journal.compactBytes} - size of the log in bytes that
+ * triggers a compaction (default 4MB)</li>
+ * </ul>
+ *
+ * @param <K> Type of the keys in the store
+ * @param <V> Type of the values in the store
+ */
+public final class Journal<K, V> {
+	public static final boolean ENABLED       = !"false".equalsIgnoreCase(System.getProperty("fileio.journal"));
+	private static final boolean FSYNC        = Boolean.getBoolean("fileio.journal.fsync");
+	private static final long    COMPACT_BYTES = Long.getLong("fileio.journal.compactBytes", 4L << 20);
+
+	private static final int  LOG_MAGIC  = 0x52424C31; // "RBL1"
+	private static final int  LOG_HEADER = 6;
+	private static final byte PUT        = 1;
+	private static final byte REMOVE     = 2;
+
+	private static final Timer SAVE = Metrics.timer("save.journal");
+
+	// One thread is shared between all of the journals, compactions are rare
+	// and there is no benefit in running them side by side.
+	private static final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "journal-compactor");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final String            snapshotPath;
+	private final Path              logPath;
+	private final Path              oldLogPath;
+	private final Map<K, V>         map;
+	private final RecordCodec<K, V> codec;
+	private final LongSupplier      sequence;
+
+	private FileChannel log;
+	private ByteBuffer  scratch = ByteBuffer.allocate(256);
+	private boolean     compacting;
+
+	/**
+	 * @param path
+	 *            Path of the snapshot file, the log is kept next to it
+	 * @param map
+	 *            The live map the journal records changes to
+	 * @param codec
+	 *            Codec for the records in the store
+	 * @param sequence
+	 *            Supplies the counter saved in the snapshot header. Called
+	 *            while the journal is locked.
+	 */
+	public Journal(String path, Map<K, V> map, RecordCodec<K, V> codec, LongSupplier sequence) {
+		this.snapshotPath = path;
+		this.logPath = Paths.get(path + ".log");
+		this.oldLogPath = Paths.get(path + ".log.old");
+		this.map = map;
+		this.codec = codec;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Loads the snapshot into the map, replays any records left in the log
+	 * over it, and opens the log ready for new records.
+	 * <p>
+	 * A snapshot saved by an older version of the system with Java
+	 * serialization is handed to {@code legacy} to unpack into the map, and
+	 * is then rewritten in the new format straight away.
+	 *
+	 * @param legacy
+	 *            Unpacks a legacy snapshot into the map
+	 * @return The header of the snapshot, or null if there wasn't one in the
+	 *         new format
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public synchronized RecordHeader load(Consumer<HashMap<Object, Object>> legacy)
+			throws IOException, ClassNotFoundException {
+		StoreEvent event = new StoreEvent();
+		event.begin();
+		RecordHeader header = null;
+		boolean migrate = FileIO.isLegacy(snapshotPath);
+		if (migrate) {
+			legacy.accept(FileIO.load(snapshotPath));
+		} else {
+			header = FileIO.loadRecords(snapshotPath, codec, v -> map.put(codec.keyOf(v), v));
+		}
+
+		int count = replay(oldLogPath) + replay(logPath);
+		if (count > 0) {
+			Output.console("Replayed %s changes from %s", count, logPath);
+		}
+
+		if (migrate) {
+			FileIO.keepLegacyCopy(snapshotPath);
+		}
+
+		if (migrate || (!ENABLED && count > 0)) {
+			// Logs left over from a journaled run are folded back into the
+			// snapshot so that nothing is lost.
+			FileIO.saveRecords(snapshotPath, codec, new ArrayList<V>(map.values()), sequence.getAsLong());
+			Files.deleteIfExists(oldLogPath);
+			Files.deleteIfExists(logPath);
+		}
+
+		if (ENABLED) {
+			log = open();
+			if (Files.exists(oldLogPath) || log.size() >= COMPACT_BYTES) {
+				scheduleCompaction();
+			}
+		}
+		event.finish("load", snapshotPath, map.size());
+		return header;
+	}
+
+	/**
+	 * Adds a value to the map and records the change
+	 *
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             If the value can't be written by the codec, in which case
+	 *             the map is left alone
+	 */
+	public synchronized void put(K key, V value) throws IOException {
+		long start = System.nanoTime();
+		StoreEvent event = new StoreEvent();
+		event.begin();
+		int size = codec.size(value);
+		map.put(key, value);
+		if (ENABLED) {
+			reserve(5 + size);
+			record(PUT, value);
+			flush();
+		} else {
+			saveSnapshot();
+		}
+		SAVE.record(start);
+		event.finish("put", snapshotPath, 1);
+	}
+
+	/**
+	 * Adds several values to the map and records them all with a single
+	 * write to the log, forced to disk once if {@code fileio.journal.fsync}
+	 * is set
+	 *
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             If any of the values can't be written by the codec, in
+	 *             which case none are added
+	 */
+	public synchronized void putAll(Collection<V> values) throws IOException {
+		if (values.isEmpty()) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		StoreEvent event = new StoreEvent();
+		event.begin();
+		// Sized before any are added, so one that can't be written adds none
+		int total = 0;
+		for (V value : values) {
+			total += 5 + codec.size(value);
+		}
+		for (V value : values) {
+			map.put(codec.keyOf(value), value);
+		}
+
+		if (ENABLED) {
+			reserve(total);
+			for (V value : values) {
+				record(PUT, value);
+			}
+			flush();
+		} else {
+			saveSnapshot();
+		}
+		SAVE.record(start);
+		event.finish("put", snapshotPath, values.size());
+	}
+
+	/**
+	 * Removes a value from the map and records the change
+	 *
+	 * @return the value that was removed, or null if there was none
+	 * @throws IOException
+	 */
+	public synchronized V remove(K key) throws IOException {
+		V old = map.remove(key);
+		if (old == null) {
+			return null;
+		}
+
+		long start = System.nanoTime();
+		StoreEvent event = new StoreEvent();
+		event.begin();
+		if (ENABLED) {
+			append(REMOVE, old);
+		} else {
+			saveSnapshot();
+		}
+		SAVE.record(start);
+		event.finish("remove", snapshotPath, 1);
+		return old;
+	}
+
+	/**
+	 * Removes several values from the map and records them all with a
+	 * single write to the log, forced to disk once if
+	 * {@code fileio.journal.fsync} is set. Keys not in the map are skipped.
+	 *
+	 * @return the values that were removed
+	 * @throws IOException
+	 */
+	public synchronized List<V> removeAll(Collection<K> keys) throws IOException {
+		ArrayList<V> removed = new ArrayList<V>(keys.size());
+		int total = 0;
+		for (K key : keys) {
+			V old = map.remove(key);
+			if (old != null) {
+				removed.add(old);
+				total += 5 + codec.size(old);
+			}
+		}
+		if (removed.isEmpty()) {
+			return removed;
+		}
+
+		long start = System.nanoTime();
+		StoreEvent event = new StoreEvent();
+		event.begin();
+		if (ENABLED) {
+			reserve(total);
+			for (V old : removed) {
+				record(REMOVE, old);
+			}
+			flush();
+		} else {
+			saveSnapshot();
+		}
+		SAVE.record(start);
+		event.finish("remove", snapshotPath, removed.size());
+		return removed;
+	}
+
+	/**
+	 * Folds the log into a new snapshot on the background thread without
+	 * waiting for it to grow past the threshold, or saves the snapshot
+	 * straight away if the journal is turned off. Used once the map has
+	 * been changed in a way the snapshot header should record, such as the
+	 * counter going up.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void compactSoon() throws IOException {
+		if (log == null) {
+			saveSnapshot();
+		} else {
+			scheduleCompaction();
+		}
+	}
+
+	private void saveSnapshot() throws IOException {
+		FileIO.saveRecords(snapshotPath, codec, new ArrayList<V>(map.values()), sequence.getAsLong());
+	}
+
+	/**
+	 * Writes a record to the end of the log. Removals carry the whole
+	 * removed record, the codec works out its key again on replay.
+	 */
+	private void append(byte op, V value) throws IOException {
+		reserve(5 + codec.size(value));
+		record(op, value);
+		flush();
+	}
+
+	/**
+	 * Clears the scratch buffer, making sure it can hold the given number of
+	 * bytes
+	 */
+	private void reserve(int bytes) {
+		if (scratch.capacity() < bytes) {
+			scratch = ByteBuffer.allocate(Integer.highestOneBit(bytes) << 1);
+		}
+		scratch.clear();
+	}
+
+	private void record(byte op, V value) {
+		scratch.putInt(1 + codec.size(value)).put(op);
+		codec.write(value, scratch);
+	}
+
+	/**
+	 * Writes out the records in the scratch buffer
+	 */
+	private void flush() throws IOException {
+		long end = log.size();
+		try {
+			FileIO.drain(log, scratch);
+		} catch (IOException e) {
+			// Anything written of the records is taken off again, or the
+			// records written after them would be dropped on replay
+			try {
+				log.truncate(end);
+			} catch (IOException t) {
+				e.addSuppressed(t);
+			}
+			throw e;
+		}
+		if (FSYNC) {
+			log.force(false);
+		}
+
+		if (log.size() >= COMPACT_BYTES) {
+			scheduleCompaction();
+		}
+	}
+
+	/**
+	 * Applies every complete record in a log file to the map. A record cut
+	 * short by a crash is dropped, along with anything after it.
+	 *
+	 * @return the number of records applied
+	 */
+	private int replay(Path file) throws IOException, ClassNotFoundException {
+		if (!Files.exists(file)) {
+			return 0;
+		}
+
+		int count = 0;
+		long good;
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+			while (header.hasRemaining() && ch.read(header) >= 0);
+			header.flip();
+
+			if (header.remaining() < 4 || header.getInt(0) != LOG_MAGIC) {
+				return replayLegacy(file);
+			}
+			if (header.remaining() < LOG_HEADER) {
+				good = 0;
+			} else {
+				short version = header.getShort(4);
+				RecordReader reader = new RecordReader(ch, LOG_HEADER);
+				ByteBuffer record;
+				while ((record = reader.next()) != null) {
+					byte op = record.get();
+					V value = codec.read(record, version);
+					if (op == PUT) {
+						map.put(codec.keyOf(value), value);
+					} else {
+						map.remove(codec.keyOf(value));
+					}
+					count++;
+				}
+				good = reader.position();
+			}
+		}
+
+		truncate(file, good);
+		return count;
+	}
+
+	/**
+	 * Replays a log written before the compact record format, where each
+	 * record was [operation (1 byte)][length (4 bytes)] followed by the key
+	 * and value written with Java serialization.
+	 */
+	@SuppressWarnings("unchecked")
+	private int replayLegacy(Path file) throws IOException, ClassNotFoundException {
+		int count = 0;
+		long good = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			while (true) {
+				int op = in.read();
+				if (op != PUT && op != REMOVE) {
+					break;
+				}
+
+				byte[] payload;
+				try {
+					int length = in.readInt();
+					if (length < 0) {
+						break;
+					}
+					payload = new byte[length];
+					in.readFully(payload);
+				} catch (EOFException e) {
+					break;
+				}
+
+				try (ObjectInputStream rec = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+					K key = (K) rec.readObject();
+					if (op == PUT) {
+						map.put(key, (V) rec.readObject());
+					} else {
+						map.remove(key);
+					}
+				} catch (StreamCorruptedException | EOFException e) {
+					break;
+				}
+
+				good += 5 + payload.length;
+				count++;
+			}
+		}
+
+		truncate(file, good);
+		return count;
+	}
+
+	private void truncate(Path file, long good) throws IOException {
+		if (good < Files.size(file)) {
+			Output.consoleWarn("%s has a damaged record at byte %s, discarding the rest of it", file, good);
+			try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				ch.truncate(good);
+			}
+		}
+	}
+
+	/**
+	 * Opens the log for appending, writing its header if it is new
+	 */
+	private FileChannel open() throws IOException {
+		FileChannel ch = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		if (ch.size() == 0) {
+			ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+			header.putInt(LOG_MAGIC).putShort(codec.version());
+			FileIO.drain(ch, header);
+		}
+		return ch;
+	}
+
+	private void scheduleCompaction() {
+		if (!compacting) {
+			compacting = true;
+			compactor.execute(this::compact);
+		}
+	}
+
+	/**
+	 * Folds the log into a new snapshot. The log is moved aside while the
+	 * store is locked, so new changes carry on into a fresh log while the
+	 * snapshot is written. The old log is only deleted once the snapshot is
+	 * safely on disk, so a crash part way through loses nothing.
+	 */
+	private void compact() {
+		try {
+			ArrayList<V> values;
+			long seq;
+			synchronized (this) {
+				values = new ArrayList<V>(map.values());
+				seq = sequence.getAsLong();
+				rotate();
+			}
+
+			FileIO.saveRecords(snapshotPath, codec, values, seq);
+			Files.deleteIfExists(oldLogPath);
+		} catch (IOException e) {
+			Output.consoleError("Failed compacting %s", logPath);
+			e.printStackTrace();
+		} finally {
+			synchronized (this) {
+				compacting = false;
+			}
+		}
+	}
+
+	/**
+	 * Moves the current log to {@code <PATH>.log.old} and opens a new one.
+	 * If an old log is still there from a compaction that never finished,
+	 * the records in the current log are added to the end of it instead.
+	 */
+	private void rotate() throws IOException {
+		log.close();
+
+		if (Files.exists(oldLogPath)) {
+			try (FileChannel old = FileChannel.open(oldLogPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+					FileChannel cur = FileChannel.open(logPath, StandardOpenOption.READ)) {
+				long pos = LOG_HEADER;
+				while (pos < cur.size()) {
+					pos += cur.transferTo(pos, cur.size() - pos, old);
+				}
+				old.force(false);
+			}
+			Files.delete(logPath);
+		} else {
+			Files.move(logPath, oldLogPath, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		log = open();
+	}
+}
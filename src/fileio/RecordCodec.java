@@ -0,0 +1,121 @@
+package fileio;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts the records of one of the stores to and from the compact binary
+ * format used by {@link FileIO#saveRecords} and {@link Journal}.
+ * <p>
+ * Records are made of fixed-width fields wherever possible. Dates are
+ * stored as an epoch day int, times as the minute of the day and strings
+ * as a length-prefixed UTF-8 byte sequence.
+ *
+ * @param <K> Type of the key the store maps records by
+ * @param <V> Type of the records
+ */
+public interface RecordCodec<K, V> {
+	/**
+	 * @return The version of the record layout written by this codec. Saved
+	 *         in the header of each file so old layouts can still be read.
+	 */
+	short version();
+
+	/**
+	 * @return The key the given record is stored under
+	 */
+	K keyOf(V value);
+
+	/**
+	 * @return The number of bytes {@link #write} will use for the record
+	 */
+	int size(V value);
+
+	/**
+	 * Writes a record at the current position of the buffer
+	 */
+	void write(V value, ByteBuffer buf);
+
+	/**
+	 * Reads a record from the current position of the buffer
+	 *
+	 * @param version
+	 *            The layout version the record was written with
+	 */
+	V read(ByteBuffer buf, short version);
+
+	/**
+	 * The most UTF-8 bytes a string can have and still fit its 2 byte length
+	 */
+	int MAX_STRING_BYTES = Short.MAX_VALUE;
+
+	/**
+	 * @return Number of bytes {@link #putString} uses for the given string
+	 * @throws IllegalArgumentException
+	 *             If the string is longer than {@link #MAX_STRING_BYTES}
+	 */
+	static int sizeOf(String str) {
+		if (str == null) {
+			return 2;
+		}
+
+		int bytes = str.length();
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c >= 0x80) {
+				// Anything outside of ASCII, count it properly
+				bytes = str.getBytes(StandardCharsets.UTF_8).length;
+				break;
+			}
+		}
+		checkLength(bytes);
+		return 2 + bytes;
+	}
+
+	/**
+	 * Writes a string as a 2 byte length followed by its UTF-8 bytes. A
+	 * null string is written as a length of -1.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the string is longer than {@link #MAX_STRING_BYTES}
+	 */
+	static void putString(ByteBuffer buf, String str) {
+		if (str == null) {
+			buf.putShort((short) -1);
+			return;
+		}
+
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		checkLength(bytes.length);
+		buf.putShort((short) bytes.length);
+		buf.put(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #putString}
+	 */
+	static String getString(ByteBuffer buf) {
+		int length = buf.getShort();
+		if (length < 0) {
+			return null;
+		}
+
+		String str;
+		if (buf.hasArray()) {
+			str = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+		} else {
+			byte[] bytes = new byte[length];
+			buf.get(buf.position(), bytes);
+			str = new String(bytes, StandardCharsets.UTF_8);
+		}
+		buf.position(buf.position() + length);
+		return str;
+	}
+
+	private static void checkLength(int bytes) {
+		if (bytes > MAX_STRING_BYTES) {
+			throw new IllegalArgumentException(
+					"Can't save a string of " + bytes + " bytes, the most is " + MAX_STRING_BYTES);
+		}
+	}
+}
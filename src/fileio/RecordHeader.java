@@ -0,0 +1,62 @@
+package fileio;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Header at the start of a file written by {@link FileIO#saveRecords}:
+ * <ol>
+ * <li>Magic number (4 bytes)</li>
+ * <li>Version of the record layout (2 bytes)</li>
+ * <li>The amount of records in the file (4 bytes)</li>
+ * <li>A counter kept by the store, such as the next ID to hand out (8
+ * bytes)</li>
+ * <li>When the file was saved, in epoch milliseconds (8 bytes)</li>
+ * </ol>
+ */
+public final class RecordHeader {
+	static final int MAGIC = 0x52424B31; // "RBK1"
+	static final int SIZE  = 26;
+
+	private final short version;
+	private final int   count;
+	private final long  sequence;
+	private final long  saved;
+
+	RecordHeader(short version, int count, long sequence, long saved) {
+		this.version = version;
+		this.count = count;
+		this.sequence = sequence;
+		this.saved = saved;
+	}
+
+	/**
+	 * @return The header at the start of the buffer, or null if the buffer
+	 *         doesn't start with one
+	 */
+	static RecordHeader read(ByteBuffer buf) {
+		if (buf.remaining() < SIZE || buf.getInt() != MAGIC) {
+			return null;
+		}
+		return new RecordHeader(buf.getShort(), buf.getInt(), buf.getLong(), buf.getLong());
+	}
+
+	void write(ByteBuffer buf) {
+		buf.putInt(MAGIC).putShort(version).putInt(count).putLong(sequence).putLong(saved);
+	}
+
+	public short getVersion() { return this.version; }
+
+	public int getCount() { return this.count; }
+
+	public long getSequence() { return this.sequence; }
+
+	/**
+	 * @return The date and time the file was saved
+	 */
+	public LocalDateTime getSaved() {
+		return LocalDateTime.ofInstant(Instant.ofEpochMilli(saved), ZoneId.systemDefault());
+	}
+}
@@ -0,0 +1,86 @@
+package fileio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads length-prefixed records from a file a chunk at a time, so that
+ * large files never have to be held in memory all at once.
+ * <p>
+ * Each record is stored as a 4 byte length followed by that many bytes.
+ */
+final class RecordReader {
+	private final FileChannel channel;
+	private ByteBuffer        buf;
+	private long              position;
+	private boolean           eof;
+
+	RecordReader(FileChannel channel, long position) throws IOException {
+		this.channel = channel;
+		this.position = position;
+		this.buf = ByteBuffer.allocate(1 << 16);
+		this.buf.flip();
+		channel.position(position);
+	}
+
+	/**
+	 * Gets the next record in the file
+	 *
+	 * @return A buffer holding just the next record, or null if there are no
+	 *         complete records left
+	 * @throws IOException
+	 */
+	ByteBuffer next() throws IOException {
+		if (!fill(4)) {
+			return null;
+		}
+
+		// A length running past the end of the file means the record was
+		// cut short, or the file is damaged
+		int length = buf.getInt(buf.position());
+		if (length < 0 || length > channel.size() - position - 4 || !fill(4 + length)) {
+			return null;
+		}
+
+		ByteBuffer record = buf.slice(buf.position() + 4, length);
+		buf.position(buf.position() + 4 + length);
+		position += 4 + length;
+		return record;
+	}
+
+	/**
+	 * @return The file position just after the last complete record read
+	 */
+	long position() {
+		return this.position;
+	}
+
+	/**
+	 * Makes sure at least {@code n} bytes are waiting in the buffer,
+	 * reading more of the file if needed.
+	 *
+	 * @return false if the file ends before {@code n} bytes are available
+	 */
+	private boolean fill(int n) throws IOException {
+		if (buf.remaining() >= n) {
+			return true;
+		}
+
+		if (buf.capacity() < n) {
+			ByteBuffer bigger = ByteBuffer.allocate(Integer.highestOneBit(n) << 1);
+			bigger.put(buf);
+			buf = bigger;
+		} else {
+			buf.compact();
+		}
+
+		while (buf.position() < n && !eof) {
+			if (channel.read(buf) < 0) {
+				eof = true;
+			}
+		}
+		buf.flip();
+		return buf.remaining() >= n;
+	}
+}
@@ -0,0 +1,46 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A booking made or cancelled, recorded by JFR when it is enabled. Begin
+ * the event before the work and {@link #finish} it after.
+ */
+@Name("bookings.Booking")
+@Label("Booking")
+@Category("Room Booking System")
+@Description("A booking made or cancelled")
+public final class BookingEvent extends Event {
+	@Label("Action")
+	@Description("book, batch or cancel")
+	String action;
+
+	@Label("Booking ID")
+	String bookingId;
+
+	@Label("Room Number")
+	int    roomNumber;
+
+	@Label("Client ID")
+	int    clientId;
+
+	/**
+	 * Commits the event, if JFR is recording it
+	 *
+	 * @param roomNumber
+	 *            Room booked, or -1 if no booking was made
+	 */
+	public void finish(String action, String bookingId, int roomNumber, int clientId) {
+		if (shouldCommit()) {
+			this.action = action;
+			this.bookingId = bookingId;
+			this.roomNumber = roomNumber;
+			this.clientId = clientId;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values into buckets whose width grows with the value, like an
+ * HdrHistogram: every power of two is split into {@value #SUB_BUCKETS}
+ * buckets, so a percentile read back is within about 3% of the true value
+ * whatever its size. Adding a value is one atomic increment.
+ */
+public final class Histogram {
+	private static final int SUB_BITS    = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+
+	public void add(long value) {
+		counts.incrementAndGet(index(value));
+	}
+
+	public void clear() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+	}
+
+	/**
+	 * @return Copies of the counts, to read percentiles from without them
+	 *         changing
+	 */
+	public long[] counts() {
+		long[] copy = new long[counts.length()];
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = counts.get(i);
+		}
+		return copy;
+	}
+
+	/**
+	 * Finds the value a fraction of the counted values are at or below
+	 *
+	 * @param counts
+	 *            Counts from {@link #counts()}
+	 * @param total
+	 *            Sum of the counts
+	 * @param fraction
+	 *            Between 0 and 1, such as 0.99 for the 99th percentile
+	 * @return The largest value in the bucket the percentile falls in, or 0
+	 *         if nothing has been counted
+	 */
+	public static long percentile(long[] counts, long total, double fraction) {
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return highest(i);
+			}
+		}
+		return 0;
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) Math.max(0, value);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return The largest value counted in a bucket
+	 */
+	static long highest(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
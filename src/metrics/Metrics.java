@@ -0,0 +1,119 @@
+package metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers for the busy parts of the Room Booking System:
+ * finding rooms, making and cancelling bookings, and loading and saving
+ * the stores. Each is made the first time it is asked for by name and kept
+ * for the life of the JVM, so classes keep them in static fields.
+ * <p>
+ * {@link #toText()} and {@link #toJson()} read every counter and timer at
+ * once, and the booking server serves them from {@code GET /metrics}. The
+ * JFR events in this package record the same work one booking, search or
+ * file at a time.
+ * <p>
+ * Timers are only kept when the {@code metrics} system property isn't
+ * {@code false}, counters are always kept.
+ */
+public final class Metrics {
+	static final boolean                          ENABLED  = !"false".equalsIgnoreCase(System.getProperty("metrics"));
+
+	private static final Map<String, Timer>       timers   = new ConcurrentHashMap<String, Timer>();
+	private static final Map<String, LongAdder>   counters = new ConcurrentHashMap<String, LongAdder>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * @return The timer with the name, made if there isn't one yet
+	 */
+	public static Timer timer(String name) {
+		return timers.computeIfAbsent(name, Timer::new);
+	}
+
+	/**
+	 * @return The counter with the name, made if there isn't one yet
+	 */
+	public static LongAdder counter(String name) {
+		return counters.computeIfAbsent(name, n -> new LongAdder());
+	}
+
+	/**
+	 * Sets every counter and timer back to zero
+	 */
+	public static void reset() {
+		for (Timer t : timers.values()) {
+			t.reset();
+		}
+		for (LongAdder c : counters.values()) {
+			c.reset();
+		}
+	}
+
+	/**
+	 * @return Every counter, then a line per timer with its count and its
+	 *         mean, percentiles and maximum in microseconds
+	 */
+	public static String toText() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Long> c : readCounters().entrySet()) {
+			sb.append(String.format("%-28s %12d%n", c.getKey(), c.getValue()));
+		}
+
+		sb.append(String.format("%-28s %10s %10s %10s %10s %10s %10s %10s%n", "timer (us)", "count", "mean", "p50",
+				"p90", "p99", "p99.9", "max"));
+		for (Timer.Snapshot t : readTimers()) {
+			sb.append(String.format("%-28s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n", t.name, t.count,
+					t.mean() / 1e3, t.p50 / 1e3, t.p90 / 1e3, t.p99 / 1e3, t.p999 / 1e3, t.max / 1e3));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return An object holding a {@code counters} object of name to count,
+	 *         and a {@code timers} object of name to count and times in
+	 *         nanoseconds
+	 */
+	public static String toJson() {
+		StringBuilder sb = new StringBuilder("{\"counters\":{");
+		String comma = "";
+		for (Map.Entry<String, Long> c : readCounters().entrySet()) {
+			sb.append(comma).append('"').append(c.getKey()).append("\":").append(c.getValue());
+			comma = ",";
+		}
+
+		sb.append("},\"timers\":{");
+		comma = "";
+		for (Timer.Snapshot t : readTimers()) {
+			sb.append(comma).append('"').append(t.name).append("\":{\"count\":").append(t.count)
+					.append(",\"totalNanos\":").append(t.total).append(",\"meanNanos\":").append(t.mean())
+					.append(",\"p50Nanos\":").append(t.p50).append(",\"p90Nanos\":").append(t.p90)
+					.append(",\"p99Nanos\":").append(t.p99).append(",\"p999Nanos\":").append(t.p999)
+					.append(",\"maxNanos\":").append(t.max).append('}');
+			comma = ",";
+		}
+		return sb.append("}}").toString();
+	}
+
+	private static TreeMap<String, Long> readCounters() {
+		TreeMap<String, Long> read = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> c : counters.entrySet()) {
+			read.put(c.getKey(), c.getValue().sum());
+		}
+		return read;
+	}
+
+	private static List<Timer.Snapshot> readTimers() {
+		ArrayList<Timer.Snapshot> read = new ArrayList<Timer.Snapshot>();
+		for (Timer t : new TreeMap<String, Timer>(timers).values()) {
+			read.add(t.snapshot());
+		}
+		return read;
+	}
+}
@@ -0,0 +1,52 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A search for a room meeting a client's needs, recorded by JFR when it is
+ * enabled. Begin the event before the search and {@link #finish} it after.
+ */
+@Name("bookings.RoomSearch")
+@Label("Room Search")
+@Category("Room Booking System")
+@Description("A search for the best fitting free room, or for the times one is free")
+public final class RoomSearchEvent extends Event {
+	@Label("Search")
+	@Description("best-fit or available")
+	String search;
+
+	@Label("Computers")
+	int    computers;
+
+	@Label("Breakout Seats")
+	int    breakoutSeats;
+
+	@Label("Date")
+	String date;
+
+	@Label("Room Number")
+	@Description("The best fitting room, or the room of the first option, or -1 if none was found")
+	int    roomNumber;
+
+	@Label("Results")
+	int    results;
+
+	/**
+	 * Commits the event, if JFR is recording it
+	 */
+	public void finish(String search, int computers, int breakoutSeats, Object date, int roomNumber, int results) {
+		if (shouldCommit()) {
+			this.search = search;
+			this.computers = computers;
+			this.breakoutSeats = breakoutSeats;
+			this.date = String.valueOf(date);
+			this.roomNumber = roomNumber;
+			this.results = results;
+			commit();
+		}
+	}
+}
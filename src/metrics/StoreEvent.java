@@ -0,0 +1,39 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A store file loaded or written to, recorded by JFR when it is enabled.
+ * Begin the event before the work and {@link #finish} it after.
+ */
+@Name("fileio.Store")
+@Label("Store")
+@Category("Room Booking System")
+@Description("A store file loaded, saved or written to")
+public final class StoreEvent extends Event {
+	@Label("Action")
+	@Description("load, snapshot, put or remove")
+	String action;
+
+	@Label("Path")
+	String path;
+
+	@Label("Records")
+	int    records;
+
+	/**
+	 * Commits the event, if JFR is recording it
+	 */
+	public void finish(String action, String path, int records) {
+		if (shouldCommit()) {
+			this.action = action;
+			this.path = path;
+			this.records = records;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how many times something is done and how long it takes. Timers
+ * are found by name with {@link Metrics#timer}, and are used as
+ *
+ * <pre>
+ * long start = System.nanoTime();
+ * try {
+ * 	...
+ * } finally {
+ * 	TIMER.record(start);
+ * }
+ * </pre>
+ *
+ * Recording takes a few uncontended atomic updates, and nothing when
+ * metrics are turned off.
+ */
+public final class Timer {
+	private final String          name;
+	private final LongAdder       count     = new LongAdder();
+	private final LongAdder       total     = new LongAdder();
+	private final LongAccumulator max       = new LongAccumulator(Math::max, 0);
+	private final Histogram       histogram = new Histogram();
+
+	Timer(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Records something that started at a time from {@link System#nanoTime}
+	 * and has just finished
+	 */
+	public void record(long start) {
+		if (Metrics.ENABLED) {
+			recordNanos(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Records something that took a number of nanoseconds
+	 */
+	public void recordNanos(long nanos) {
+		if (Metrics.ENABLED) {
+			count.increment();
+			total.add(nanos);
+			max.accumulate(nanos);
+			histogram.add(nanos);
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Reads the timer. The values are read one after another, so times
+	 * recorded meanwhile may be in some and not others.
+	 */
+	Snapshot snapshot() {
+		long[] counts = histogram.counts();
+		long n = 0;
+		for (long c : counts) {
+			n += c;
+		}
+		long most = max.get();
+		return new Snapshot(name, count.sum(), total.sum(), Math.min(most, Histogram.percentile(counts, n, 0.50)),
+				Math.min(most, Histogram.percentile(counts, n, 0.90)),
+				Math.min(most, Histogram.percentile(counts, n, 0.99)),
+				Math.min(most, Histogram.percentile(counts, n, 0.999)), most);
+	}
+
+	void reset() {
+		count.reset();
+		total.reset();
+		max.reset();
+		histogram.clear();
+	}
+
+	/**
+	 * What a timer had recorded when it was read, in nanoseconds
+	 */
+	static final class Snapshot {
+		final String name;
+		final long   count;
+		final long   total;
+		final long   p50;
+		final long   p90;
+		final long   p99;
+		final long   p999;
+		final long   max;
+
+		Snapshot(String name, long count, long total, long p50, long p90, long p99, long p999, long max) {
+			this.name = name;
+			this.count = count;
+			this.total = total;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.p999 = p999;
+			this.max = max;
+		}
+
+		long mean() {
+			return count == 0 ? 0 : total / count;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package reports;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import clients.Client;
+import ui.Output;
+
+/**
+ * Writes reports without asking the user anything, so they can be made
+ * from the command line or a scheduled job with no display:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true ui.Main report [options]
+ * </pre>
+ *
+ * <ul>
+ * <li>{@code --format text|csv|json} The format of the reports, CSV by
+ * default</li>
+ * <li>{@code --clients 1,2,3} Only report on the clients with these IDs,
+ * rather than every client</li>
+ * <li>{@code --from DATE} and {@code --to DATE} Only include the bookings
+ * starting from and to these dates, given as yyyy-mm-dd</li>
+ * <li>{@code --combined} Write every client's bookings to one report,
+ * rather than one report per client</li>
+ * <li>{@code --out DIR} The folder to write to, by default a new folder
+ * named with the date and time</li>
+ * <li>{@code --threads N} The most reports written at once, by default the
+ * number of processors</li>
+ * </ul>
+ *
+ * One report per client is written side by side on a fork-join pool, and
+ * clients with no bookings to report are skipped. The folder must be empty
+ * or not exist yet. A combined report is a
+ * single stream, so it is written by one thread, grouped by client.
+ */
+public final class BatchReport {
+	private static final String USAGE = "Usage: report [--format text|csv|json] [--clients ID,ID...] "
+			+ "[--from yyyy-mm-dd] [--to yyyy-mm-dd] [--combined] [--out DIR] [--threads N]";
+
+	private String       format   = "csv";
+	private List<Client> clients  = null;
+	private LocalDate    from     = null;
+	private LocalDate    to       = null;
+	private boolean      combined = false;
+	private Path         out      = null;
+	private int          threads  = Runtime.getRuntime().availableProcessors();
+
+	private final AtomicInteger reports  = new AtomicInteger();
+	private final AtomicLong    bookings = new AtomicLong();
+	private final AtomicInteger failures = new AtomicInteger();
+
+	private BatchReport() {
+	}
+
+	/**
+	 * Writes the reports asked for by the given arguments
+	 *
+	 * @return 0 if every report was written, 1 if any failed, or 2 if the
+	 *         arguments were wrong
+	 */
+	public static int run(String[] args) {
+		BatchReport batch = new BatchReport();
+		try {
+			batch.parse(args);
+		} catch (IllegalArgumentException e) {
+			Output.consoleError(e.getMessage());
+			Output.consoleError(USAGE);
+			return 2;
+		}
+		return batch.write();
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			switch (arg) {
+			case "--combined":
+				combined = true;
+				break;
+			case "--format":
+				format = value(args, ++i, arg);
+				if (Report.formatFor(format) == null) {
+					throw new IllegalArgumentException("Unknown report format " + format);
+				}
+				break;
+			case "--clients":
+				clients = new ArrayList<Client>();
+				for (String id : value(args, ++i, arg).split(",")) {
+					Client c = Client.findByID(number(id.trim(), arg));
+					if (c == null) {
+						throw new IllegalArgumentException("There is no client with the ID " + id.trim());
+					}
+					clients.add(c);
+				}
+				break;
+			case "--from":
+				from = date(value(args, ++i, arg), arg);
+				break;
+			case "--to":
+				to = date(value(args, ++i, arg), arg);
+				break;
+			case "--out":
+				out = Paths.get(value(args, ++i, arg));
+				break;
+			case "--threads":
+				threads = number(value(args, ++i, arg), arg);
+				if (threads < 1) {
+					throw new IllegalArgumentException("--threads must be at least 1");
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+
+		if (from != null || to != null) {
+			from = from == null ? LocalDate.MIN : from;
+			to = to == null ? LocalDate.MAX : to;
+		}
+		if (out == null) {
+			out = Paths.get("reports " + LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+					.replace(":", "."));
+		}
+	}
+
+	private int write() {
+		long start = System.nanoTime();
+		// Reports are never written over, so a folder that has been written
+		// to before is turned away rather than failing on every file
+		try {
+			Files.createDirectories(out);
+			try (Stream<Path> existing = Files.list(out)) {
+				if (existing.findAny().isPresent()) {
+					Output.consoleError("%s already has files in it", out);
+					return 1;
+				}
+			}
+		} catch (IOException e) {
+			Output.consoleError("Couldn't create the folder %s", out);
+			return 1;
+		}
+
+		if (combined) {
+			BookingsFinder finder = new BookingsFinder();
+			if (clients != null) {
+				finder.filterByClients(clients);
+			}
+			filterByDate(finder);
+			write(finder, "bookings");
+		} else {
+			List<Client> all = clients == null ? Client.getClients() : clients;
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.submit(() -> all.parallelStream().forEach(this::writeClient)).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failures.incrementAndGet();
+			} catch (ExecutionException e) {
+				Output.consoleError("Writing the reports failed");
+				e.getCause().printStackTrace();
+				failures.incrementAndGet();
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		Output.console("Wrote %s reports of %s bookings to %s in %sms", reports.get(), bookings.get(), out,
+				(System.nanoTime() - start) / 1000000);
+		if (failures.get() > 0) {
+			Output.consoleError("%s reports could not be written", failures.get());
+			return 1;
+		}
+		return 0;
+	}
+
+	private void writeClient(Client c) {
+		BookingsFinder finder = new BookingsFinder();
+		finder.filterByClient(c);
+		filterByDate(finder);
+		if (finder.iterator().hasNext()) {
+			write(finder, "client-" + c.getID());
+		}
+	}
+
+	private void filterByDate(BookingsFinder finder) {
+		if (from != null) {
+			finder.filterByDate(from, to);
+		}
+	}
+
+	private void write(BookingsFinder finder, String name) {
+		ReportFormatter formatter = Report.formatFor(format);
+		Path file = out.resolve(name + "." + formatter.extension());
+		try {
+			bookings.addAndGet(Report.write(finder, formatter, file));
+			reports.incrementAndGet();
+		} catch (IOException e) {
+			Output.consoleError("Couldn't write %s: %s", file, e);
+			failures.incrementAndGet();
+		}
+	}
+
+	private static String value(String[] args, int i, String option) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException(option + " needs a value");
+		}
+		return args[i];
+	}
+
+	private static int number(String value, String option) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(option + " needs a number, not " + value);
+		}
+	}
+
+	private static LocalDate date(String value, String option) {
+		try {
+			return LocalDate.parse(value);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException(option + " needs a date as yyyy-mm-dd, not " + value);
+		}
+	}
+}
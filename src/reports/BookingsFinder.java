@@ -1,24 +1,79 @@
 package reports;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import bookings.Booking;
 import clients.Client;
 
-class BookingsFinder {
-	private ArrayList<Booking> bookings;
-	
-	public BookingsFinder() {
-		bookings = Booking.getBookings();
-	}
-	
+/**
+ * Finds the bookings to go in a report. The first filter by client or date
+ * reads its bookings from the booking indexes, so only the bookings it
+ * matches are looked at. Any other filters are applied as those bookings
+ * are walked through.
+ */
+class BookingsFinder implements Iterable<Booking> {
+	private Supplier<Stream<Booking>> source  = () -> Booking.allBookings().stream();
+	private boolean                   indexed = false;
+	private Predicate<Booking>        filter  = b -> true;
+
+	/**
+	 * Keeps only the bookings for the given client
+	 */
 	public void filterByClient(Client cl) {
-		Predicate<Booking> pred = b -> b.getClient() == cl;
-		bookings.removeIf(pred);
+		int id = cl == null ? -1 : cl.getID();
+		if (!indexed) {
+			source = () -> Booking.findByClient(cl).stream();
+			indexed = true;
+		}
+		filter = filter.and(b -> b.getClientID() == id);
 	}
-	
+
+	/**
+	 * Keeps only the bookings for any of the given clients. The bookings
+	 * are grouped by client, in the order the clients are given.
+	 */
+	public void filterByClients(Collection<Client> clients) {
+		List<Client> ordered = new ArrayList<Client>(clients);
+		Set<Integer> ids = new HashSet<Integer>();
+		for (Client cl : ordered) {
+			ids.add(cl.getID());
+		}
+		if (!indexed) {
+			source = () -> ordered.stream().flatMap(cl -> Booking.findByClient(cl).stream());
+			indexed = true;
+		}
+		filter = filter.and(b -> ids.contains(b.getClientID()));
+	}
+
+	/**
+	 * Keeps only the bookings starting on any day from one date to another,
+	 * both included
+	 */
+	public void filterByDate(LocalDate from, LocalDate to) {
+		if (!indexed) {
+			source = () -> Booking.findBetween(from, to).stream();
+			indexed = true;
+		}
+		filter = filter.and(b -> !b.getDate().isBefore(from) && !b.getDate().isAfter(to));
+	}
+
+	@Override
+	public Iterator<Booking> iterator() {
+		return source.get().filter(filter).iterator();
+	}
+
 	public ArrayList<Booking> get() {
-		return this.bookings;
+		ArrayList<Booking> found = new ArrayList<Booking>();
+		forEach(found::add);
+		return found;
 	}
 }
@@ -0,0 +1,43 @@
+package reports;
+
+import java.io.IOException;
+
+import bookings.Booking;
+import clients.Client;
+
+/**
+ * Writes the bookings as comma separated values, one booking per line
+ * after a line of column names. Values with a comma, quote or line break
+ * in them are quoted.
+ */
+public final class CsvFormatter implements ReportFormatter {
+	private static final String HEADER = "booking_id,client_id,client,room,date,start_time,length_hours\n";
+
+	@Override
+	public String extension() { return "csv"; }
+
+	@Override
+	public void begin(ReportWriter out) throws IOException {
+		out.write(HEADER);
+	}
+
+	@Override
+	public void booking(Booking b, ReportWriter out) throws IOException {
+		Client c = b.getClient();
+		out.write(quote(b.getID())).write(",")
+				.write(Integer.toString(b.getClientID())).write(",")
+				.write(quote(c == null ? "" : c.toString())).write(",")
+				.write(Integer.toString(b.getRoomNumber())).write(",")
+				.write(b.getDate().toString()).write(",")
+				.write(b.getTime().toString()).write(",")
+				.write(Integer.toString(b.getLength())).write("\n");
+	}
+
+	private static String quote(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+				&& value.indexOf('\r') < 0) {
+			return value;
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
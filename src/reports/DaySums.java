@@ -0,0 +1,122 @@
+package reports;
+
+/**
+ * A count kept for each day, counted from the epoch, which can be summed
+ * over any range of days. The counts are held in a Fenwick tree, so both
+ * changing one day and summing a range take time in proportion to the log
+ * of the number of days covered.
+ * <p>
+ * The days covered grow as needed in either direction. Not thread safe.
+ */
+final class DaySums {
+	private static final int MIN_DAYS = 64;
+
+	// Epoch day of the first count
+	private long   base;
+	private long[] counts = new long[0];
+	// Fenwick tree over counts, from index 1
+	private long[] tree   = new long[1];
+
+	/**
+	 * Adds to the count for a day
+	 */
+	void add(long day, long delta) {
+		cover(day);
+		int i = (int) (day - base);
+		counts[i] += delta;
+		for (int j = i + 1; j < tree.length; j += j & -j) {
+			tree[j] += delta;
+		}
+	}
+
+	/**
+	 * @return The count for a day
+	 */
+	long get(long day) {
+		return day < base || day >= base + counts.length ? 0 : counts[(int) (day - base)];
+	}
+
+	/**
+	 * @return The sum of the counts from one day to another, both included
+	 */
+	long sum(long from, long to) {
+		if (to < from) {
+			return 0;
+		}
+		return prefix(to + 1) - prefix(from);
+	}
+
+	/**
+	 * @return The first day with a count, to the last, or null if nothing
+	 *         has been counted
+	 */
+	long[] range() {
+		int first = 0;
+		int last = counts.length - 1;
+		while (first <= last && counts[first] == 0) {
+			first++;
+		}
+		while (last >= first && counts[last] == 0) {
+			last--;
+		}
+		return first > last ? null : new long[] { base + first, base + last };
+	}
+
+	/**
+	 * @return The counts from one day to another, both included
+	 */
+	long[] slice(long from, long to) {
+		long[] found = new long[(int) Math.max(to - from + 1, 0)];
+		long start = Math.max(from, base);
+		long end = Math.min(to, base + counts.length - 1);
+		if (start <= end) {
+			System.arraycopy(counts, (int) (start - base), found, (int) (start - from), (int) (end - start + 1));
+		}
+		return found;
+	}
+
+	// Sum of every count before the given day
+	private long prefix(long day) {
+		long n = Math.min(Math.max(day - base, 0), counts.length);
+		long total = 0;
+		for (int j = (int) n; j > 0; j -= j & -j) {
+			total += tree[j];
+		}
+		return total;
+	}
+
+	/**
+	 * Makes room for a day, at least doubling the days covered each time
+	 * so growing is cheap overall
+	 */
+	private void cover(long day) {
+		if (counts.length == 0) {
+			base = day - MIN_DAYS / 2;
+			counts = new long[MIN_DAYS];
+			tree = new long[MIN_DAYS + 1];
+			return;
+		}
+		if (day >= base && day < base + counts.length) {
+			return;
+		}
+
+		long first = Math.min(base, day);
+		long end = Math.max(base + counts.length, day + 1);
+		int size = (int) Math.max(end - first, counts.length * 2L);
+		long newBase = day < base ? end - size : first;
+
+		long[] grown = new long[size];
+		System.arraycopy(counts, 0, grown, (int) (base - newBase), counts.length);
+		base = newBase;
+		counts = grown;
+
+		tree = new long[size + 1];
+		for (int i = 1; i <= size; i++) {
+			tree[i] += counts[i - 1];
+			int parent = i + (i & -i);
+			if (parent <= size) {
+				tree[parent] += tree[i];
+			}
+		}
+	}
+}
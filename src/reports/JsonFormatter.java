@@ -0,0 +1,76 @@
+package reports;
+
+import java.io.IOException;
+
+import bookings.Booking;
+import clients.Client;
+
+/**
+ * Writes the bookings as a JSON array, with one object per booking
+ */
+public final class JsonFormatter implements ReportFormatter {
+	private boolean first = true;
+
+	@Override
+	public String extension() { return "json"; }
+
+	@Override
+	public void begin(ReportWriter out) throws IOException {
+		out.write("[");
+	}
+
+	@Override
+	public void booking(Booking b, ReportWriter out) throws IOException {
+		Client c = b.getClient();
+		out.write(first ? "\n  {" : ",\n  {");
+		first = false;
+
+		out.write("\"id\": ").write(string(b.getID()))
+				.write(", \"clientId\": ").write(Integer.toString(b.getClientID()))
+				.write(", \"client\": ").write(c == null ? "null" : string(c.toString()))
+				.write(", \"room\": ").write(Integer.toString(b.getRoomNumber()))
+				.write(", \"date\": ").write(string(b.getDate().toString()))
+				.write(", \"startTime\": ").write(string(b.getTime().toString()))
+				.write(", \"lengthHours\": ").write(Integer.toString(b.getLength()))
+				.write("}");
+	}
+
+	@Override
+	public void end(ReportWriter out) throws IOException {
+		out.write(first ? "]\n" : "\n]\n");
+	}
+
+	/**
+	 * Quotes a string, escaping the characters JSON doesn't allow in one
+	 */
+	static String string(String value) {
+		StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			switch (ch) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (ch < 0x20) {
+					sb.append(String.format("\\u%04x", (int) ch));
+				} else {
+					sb.append(ch);
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
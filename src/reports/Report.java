@@ -1,72 +1,113 @@
 package reports;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
-import java.time.format.FormatStyle;
-import java.util.ArrayList;
 
 import javax.swing.JOptionPane;
 
 import bookings.Booking;
 import clients.Client;
+import ui.Output;
 
 public class Report {
 	//private static final String DEFAULT_PATH = ;
-	private ArrayList<Booking> bookings;
-	File file;
-	FileWriter fw;
+	private static final String[] FORMATS = { "Text", "CSV", "JSON" };
+
+	private BookingsFinder  bookings;
+	private ReportFormatter formatter;
+	private Path            file;
 	
 	public Report() throws IOException{
+		if (!getBookings() || !getFormat()) {
+			return;
+		}
 		makeFile();
-		getBookings();
 		print();
 	}
 	
-	private void makeFile() throws IOException {
+	private void makeFile() {
 		String path = LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE) + ", " 
-					+ LocalTime.now().format(DateTimeFormatter.ISO_LOCAL_TIME)+ ".txt"; //Create a report named with today's date and time
+					+ LocalTime.now().format(DateTimeFormatter.ISO_LOCAL_TIME) + "." + formatter.extension(); //Create a report named with today's date and time
 		path = path.replace(":", ".");
 		
 		System.out.println(path);
-		file = new File(path);
-		
-		if (! file.createNewFile()) {
-			throw new IOException();
+		file = Paths.get(path);
+	}
+	
+	private boolean getBookings() {
+		Client selection = Client.selectClient(false);
+		if (selection == null) {
+			return false;
 		}
 		
-		fw = new FileWriter(path);
+		bookings = new BookingsFinder();
+		bookings.filterByClient(selection);
+		return true;
 	}
 	
-	private void getBookings() {
-		Client selection = (Client) JOptionPane.showInputDialog(null,
-				"Enter Client", "Enter client to find bookings for",
-				JOptionPane.INFORMATION_MESSAGE, null, Client.getClients().toArray(), Client.getClients().get(0));
+	private boolean getFormat() {
+		String selection = (String) JOptionPane.showInputDialog(null,
+				"Select a format for the report", "Report Format",
+				JOptionPane.QUESTION_MESSAGE, null, FORMATS, FORMATS[0]);
+		formatter = formatFor(selection);
+		return formatter != null;
+	}
+	
+	/**
+	 * Makes a new formatter for the report format with the given name.
+	 * Formatters can keep state while they write, so each report needs its
+	 * own.
+	 * 
+	 * @param name
+	 *            Text, CSV or JSON, in any case
+	 * @return The formatter, or null if there is no format with that name
+	 */
+	public static ReportFormatter formatFor(String name) {
+		if (name == null) {
+			return null;
+		}
 		
-		BookingsFinder bf = new BookingsFinder();
-		bf.filterByClient(selection);
-		bookings = bf.get();
+		switch (name.toLowerCase()) {
+		case "text":
+		case "txt":
+			return new TextFormatter();
+		case "csv":
+			return new CsvFormatter();
+		case "json":
+			return new JsonFormatter();
+		default:
+			return null;
+		}
+	}
+	
+	private void print() throws IOException {
+		int count = write(bookings, formatter, file);
+		Output.console("Report of %s bookings written to %s", count, file);
+		JOptionPane.showMessageDialog(null, "Your report has been printed to file");
 	}
 	
-	private void print() {
-		try {
-			StringBuilder sb = new StringBuilder();
-			for(Booking b : bookings) {
-				sb.append(b.toString());
-				sb.append("\n");
+	/**
+	 * Writes each booking straight to a new file as it is found, so the
+	 * report is never held in memory as a whole
+	 * 
+	 * @return The number of bookings written
+	 * @throws IOException
+	 *             If the file already exists or can't be written
+	 */
+	public static int write(Iterable<Booking> bookings, ReportFormatter formatter, Path file) throws IOException {
+		int count = 0;
+		try (ReportWriter out = new ReportWriter(file)) {
+			formatter.begin(out);
+			for (Booking b : bookings) {
+				formatter.booking(b, out);
+				count++;
 			}
-			System.out.println(sb.toString());
-			
-			FileOutputStream fos = new FileOutputStream(file);
-			fos.write(sb.toString().getBytes());
-			JOptionPane.showMessageDialog(null, "Your report has been printed to file");
-		} catch (IOException e) {
-			e.printStackTrace();
+			formatter.end(out);
 		}
+		return count;
 	}
 }
@@ -0,0 +1,41 @@
+package reports;
+
+import java.io.IOException;
+
+import bookings.Booking;
+
+/**
+ * Lays out the bookings in a report. A formatter is given each booking in
+ * turn and writes it straight out, so it should keep no more than a few
+ * fields of state between bookings.
+ */
+public interface ReportFormatter {
+	/**
+	 * @return The file extension for reports in this format, without the
+	 *         dot
+	 */
+	String extension();
+
+	/**
+	 * Writes anything that comes before the first booking
+	 *
+	 * @throws IOException
+	 */
+	default void begin(ReportWriter out) throws IOException {
+	}
+
+	/**
+	 * Writes one booking
+	 *
+	 * @throws IOException
+	 */
+	void booking(Booking b, ReportWriter out) throws IOException;
+
+	/**
+	 * Writes anything that comes after the last booking
+	 *
+	 * @throws IOException
+	 */
+	default void end(ReportWriter out) throws IOException {
+	}
+}
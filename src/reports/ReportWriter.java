@@ -0,0 +1,76 @@
+package reports;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a report to a file as UTF-8 text through a fixed size buffer, so
+ * a report never needs to be held in memory as a whole however many
+ * bookings it has
+ */
+public final class ReportWriter implements Closeable {
+	private static final int BUFFER = 64 * 1024;
+
+	private final FileChannel    channel;
+	private final ByteBuffer     buf     = ByteBuffer.allocateDirect(BUFFER);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+	/**
+	 * Creates a new file to write a report to
+	 *
+	 * @throws IOException
+	 *             If the file already exists or can't be created
+	 */
+	public ReportWriter(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Adds some text to the report
+	 *
+	 * @throws IOException
+	 */
+	public ReportWriter write(CharSequence text) throws IOException {
+		CharBuffer in = CharBuffer.wrap(text);
+		while (true) {
+			CoderResult result = encoder.encode(in, buf, true);
+			if (result.isOverflow()) {
+				drain();
+			} else if (result.isError()) {
+				result.throwException();
+			} else {
+				break;
+			}
+		}
+		encoder.reset();
+		return this;
+	}
+
+	/**
+	 * Writes out anything left in the buffer and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			drain();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void drain() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+}
@@ -0,0 +1,19 @@
+package reports;
+
+import java.io.IOException;
+
+import bookings.Booking;
+
+/**
+ * Writes each booking as a block of text, the same way bookings are shown
+ * to the user
+ */
+public final class TextFormatter implements ReportFormatter {
+	@Override
+	public String extension() { return "txt"; }
+
+	@Override
+	public void booking(Booking b, ReportWriter out) throws IOException {
+		out.write(b.toString()).write("\n");
+	}
+}
@@ -0,0 +1,387 @@
+package reports;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import bookings.Booking;
+import bookings.BookingListener;
+import fileio.FileIO;
+import fileio.RecordCodec;
+import fileio.RecordHeader;
+import metrics.Metrics;
+import ui.Output;
+
+/**
+ * How much each room is booked, kept up to date as bookings are made and
+ * cancelled, so utilization over any range of dates is read without
+ * looking at the bookings.
+ * <p>
+ * The minutes booked in each room on each day are kept in a
+ * {@link DaySums}, so the booked hours of a room over a range of dates are
+ * found in time in proportion to the log of the days covered, and the
+ * hours of each day or week of a range in proportion to the days. The
+ * minutes booked across all rooms in each hour of each day are kept for
+ * the peak occupancy.
+ * <p>
+ * The counts are saved to {@value #PATH} when the system exits, along with
+ * the number of bookings and the booking ID counter. When they are loaded
+ * they are only used if those still match the bookings and the totals
+ * saved with them add up, otherwise they are counted again from the
+ * bookings. Must be loaded before any booking is made.
+ * <p>
+ * Bookings made and cancelled only queue their change, so they never wait
+ * for the counts while their room is locked. The changes are counted on a
+ * thread of their own, or by anything reading the counts before then.
+ */
+public final class Utilization {
+	private static final String  PATH            = FileIO.dataPath("utilization.bin");
+	private static final int     MINUTES_PER_DAY = 24 * 60;
+
+	private static final HashMap<Integer, DaySums> rooms  = new HashMap<Integer, DaySums>();
+	private static DaySums                         all    = new DaySums();
+	// Minutes booked across all rooms in each hour of each day, by epoch day
+	private static final TreeMap<Long, long[]>     hourly = new TreeMap<Long, long[]>();
+	private static int                             bookings;
+
+	// Bookings made and cancelled that haven't been counted yet
+	private static final ConcurrentLinkedQueue<Change> pending   = new ConcurrentLinkedQueue<Change>();
+	// Set while the counter has been asked to count the pending changes
+	private static final AtomicBoolean                 scheduled = new AtomicBoolean();
+	private static final ExecutorService               counter   = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "utilization-counter");
+		t.setDaemon(true);
+		return t;
+	});
+
+	static {
+		long start = System.nanoTime();
+		if (!load()) {
+			rebuild();
+		}
+
+		// Only listens once the bookings so far have been counted, so none
+		// are counted twice
+		Booking.addListener(new BookingListener() {
+			@Override
+			public void booked(Booking b) { queue(b, 1); }
+
+			@Override
+			public void cancelled(Booking b) { queue(b, -1); }
+		});
+		Metrics.timer("load.utilization").record(start);
+	}
+
+	private Utilization() {
+	}
+
+	/**
+	 * Gets the hours a room is booked for from one date to another. Parts
+	 * of bookings running past midnight count towards the next day.
+	 *
+	 * @param from
+	 *            First date, included
+	 * @param to
+	 *            Last date, included
+	 */
+	public static synchronized double bookedHours(int roomNumber, LocalDate from, LocalDate to) {
+		countPending();
+		DaySums room = rooms.get(roomNumber);
+		return room == null ? 0 : room.sum(from.toEpochDay(), to.toEpochDay()) / 60.0;
+	}
+
+	/**
+	 * Gets the hours every room is booked for from one date to another
+	 */
+	public static synchronized double bookedHours(LocalDate from, LocalDate to) {
+		countPending();
+		return all.sum(from.toEpochDay(), to.toEpochDay()) / 60.0;
+	}
+
+	/**
+	 * @return The hours a room is booked for on each day from one date to
+	 *         another, both included
+	 */
+	public static synchronized double[] bookedHoursByDay(int roomNumber, LocalDate from, LocalDate to) {
+		countPending();
+		DaySums room = rooms.getOrDefault(roomNumber, new DaySums());
+		long[] minutes = room.slice(from.toEpochDay(), to.toEpochDay());
+		double[] hours = new double[minutes.length];
+		for (int i = 0; i < minutes.length; i++) {
+			hours[i] = minutes[i] / 60.0;
+		}
+		return hours;
+	}
+
+	/**
+	 * @return The hours a room is booked for in each week from one date to
+	 *         another, both included. Weeks start on the first date, so the
+	 *         last week may be shorter.
+	 */
+	public static synchronized double[] bookedHoursByWeek(int roomNumber, LocalDate from, LocalDate to) {
+		countPending();
+		DaySums room = rooms.getOrDefault(roomNumber, new DaySums());
+		long first = from.toEpochDay();
+		long last = to.toEpochDay();
+		double[] hours = new double[(int) Math.max(Math.floorDiv(last - first, 7) + 1, 0)];
+		for (int i = 0; i < hours.length; i++) {
+			long start = first + i * 7L;
+			hours[i] = room.sum(start, Math.min(start + 6, last)) / 60.0;
+		}
+		return hours;
+	}
+
+	/**
+	 * Gets the most rooms in use in each hour of the day, from one date to
+	 * another. The rooms in use in an hour are the minutes booked in it
+	 * across every room, divided by 60, so a room booked for half of an
+	 * hour counts as half a room.
+	 *
+	 * @return The peak rooms in use in each hour, from midnight
+	 */
+	public static synchronized double[] peakOccupancy(LocalDate from, LocalDate to) {
+		countPending();
+		double[] peak = new double[24];
+		if (to.isBefore(from)) {
+			return peak;
+		}
+		for (long[] day : hourly.subMap(from.toEpochDay(), true, to.toEpochDay(), true).values()) {
+			for (int h = 0; h < 24; h++) {
+				peak[h] = Math.max(peak[h], day[h] / 60.0);
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * Queues a booking to be counted, and asks the counter to count it
+	 * unless it has already been asked
+	 *
+	 * @param sign
+	 *            1 to add the booking, -1 to take it away
+	 */
+	private static void queue(Booking b, int sign) {
+		pending.add(new Change(b, sign));
+		if (!scheduled.get() && scheduled.compareAndSet(false, true)) {
+			counter.execute(() -> {
+				synchronized (Utilization.class) {
+					// Cleared first, so a change queued from here on asks
+					// again if it is too late to be counted this time
+					scheduled.set(false);
+					countPending();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Counts every queued change. Must hold the lock on the class.
+	 */
+	private static void countPending() {
+		for (Change c = pending.poll(); c != null; c = pending.poll()) {
+			count(c.booking, c.sign);
+		}
+	}
+
+	/**
+	 * Adds or takes away a booking's minutes, split into the hours of each
+	 * day it covers. Must hold the lock on the class.
+	 *
+	 * @param sign
+	 *            1 to add the booking, -1 to take it away
+	 */
+	private static void count(Booking b, int sign) {
+		LocalTime time = b.getTime();
+		long start = b.getDate().toEpochDay() * MINUTES_PER_DAY + time.getHour() * 60 + time.getMinute();
+		long end = start + b.getLength() * 60L;
+		DaySums room = rooms.computeIfAbsent(b.getRoomNumber(), k -> new DaySums());
+
+		for (long minute = start; minute < end;) {
+			long next = Math.min(end, (Math.floorDiv(minute, 60) + 1) * 60);
+			long day = Math.floorDiv(minute, MINUTES_PER_DAY);
+			int hour = Math.floorMod(minute, MINUTES_PER_DAY) / 60;
+			long minutes = (next - minute) * sign;
+
+			room.add(day, minutes);
+			all.add(day, minutes);
+			hourly.computeIfAbsent(day, k -> new long[24])[hour] += minutes;
+			minute = next;
+		}
+		bookings += sign;
+	}
+
+	/**
+	 * Counts every booking in the system again
+	 */
+	private static synchronized void rebuild() {
+		clear();
+		for (Booking b : Booking.allBookings()) {
+			count(b, 1);
+		}
+		Output.console("Counted the utilization of %s bookings", bookings);
+	}
+
+	private static void clear() {
+		rooms.clear();
+		hourly.clear();
+		all = new DaySums();
+		bookings = 0;
+	}
+
+	/**
+	 * Saves the counts to {@value #PATH}, to be loaded the next time the
+	 * system starts
+	 */
+	public static synchronized void save() {
+		countPending();
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		long total = 0;
+		for (Map.Entry<Integer, DaySums> e : rooms.entrySet()) {
+			long[] range = e.getValue().range();
+			if (range != null) {
+				long[] minutes = e.getValue().slice(range[0], range[1]);
+				entries.add(new Entry(Entry.ROOM, e.getKey(), range[0], minutes));
+				total += e.getValue().sum(range[0], range[1]);
+			}
+		}
+		for (Map.Entry<Long, long[]> e : hourly.entrySet()) {
+			entries.add(new Entry(Entry.HOURS, 0, e.getKey(), e.getValue()));
+		}
+		entries.add(new Entry(Entry.TOTALS, bookings, 0, new long[] { total }));
+
+		try {
+			FileIO.saveRecords(PATH, new Codec(), entries, Booking.getSequence());
+		} catch (IOException e) {
+			Output.consoleError("Failed trying to save utilization");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Loads the counts saved by {@link #save}
+	 *
+	 * @return True if the counts were loaded and match the bookings
+	 */
+	private static synchronized boolean load() {
+		long[] saved = null;
+		long roomMinutes = 0;
+		long hourMinutes = 0;
+		try {
+			ArrayList<Entry> entries = new ArrayList<Entry>();
+			RecordHeader header = FileIO.loadRecords(PATH, new Codec(), entries::add);
+			if (header == null) {
+				return false;
+			}
+
+			for (Entry e : entries) {
+				if (e.kind == Entry.ROOM) {
+					DaySums room = rooms.computeIfAbsent(e.key, k -> new DaySums());
+					for (int i = 0; i < e.values.length; i++) {
+						if (e.values[i] != 0) {
+							room.add(e.day + i, e.values[i]);
+							all.add(e.day + i, e.values[i]);
+							roomMinutes += e.values[i];
+						}
+					}
+				} else if (e.kind == Entry.HOURS) {
+					hourly.put(e.day, e.values);
+					for (long minutes : e.values) {
+						hourMinutes += minutes;
+					}
+				} else if (e.kind == Entry.TOTALS) {
+					bookings = e.key;
+					saved = e.values;
+				}
+			}
+
+			if (saved != null && saved[0] == roomMinutes && roomMinutes == hourMinutes
+					&& bookings == Booking.allBookings().size() && header.getSequence() == Booking.getSequence()) {
+				Output.console("Loaded the utilization of %s bookings", bookings);
+				return true;
+			}
+			Output.consoleWarn("%s doesn't match the bookings, counting them again", PATH);
+		} catch (IOException | RuntimeException e) {
+			Output.consoleWarn("%s couldn't be read, counting the bookings again", PATH);
+		}
+		clear();
+		return false;
+	}
+
+	/*
+	 * A booking made or cancelled, waiting to be counted
+	 */
+	private static final class Change {
+		final Booking booking;
+		final int     sign;
+
+		Change(Booking booking, int sign) {
+			this.booking = booking;
+			this.sign = sign;
+		}
+	}
+
+	/*
+	 * One record of the saved counts: the minutes booked in a room on each
+	 * day from a given day, the minutes booked in each hour of a day, or
+	 * the totals to check the rest against
+	 */
+	private static final class Entry {
+		static final byte ROOM   = 0;
+		static final byte HOURS  = 1;
+		static final byte TOTALS = 2;
+
+		final byte   kind;
+		final int    key;
+		final long   day;
+		final long[] values;
+
+		Entry(byte kind, int key, long day, long[] values) {
+			this.kind = kind;
+			this.key = key;
+			this.day = day;
+			this.values = values;
+		}
+	}
+
+	private static final class Codec implements RecordCodec<Integer, Entry> {
+		@Override
+		public short version() { return 1; }
+
+		@Override
+		public Integer keyOf(Entry e) { return e.key; }
+
+		@Override
+		public int size(Entry e) {
+			return 1 + 4 + 8 + 4 + 8 * e.values.length;
+		}
+
+		@Override
+		public void write(Entry e, ByteBuffer buf) {
+			buf.put(e.kind).putInt(e.key).putLong(e.day).putInt(e.values.length);
+			for (long v : e.values) {
+				buf.putLong(v);
+			}
+		}
+
+		@Override
+		public Entry read(ByteBuffer buf, short version) {
+			byte kind = buf.get();
+			int key = buf.getInt();
+			long day = buf.getLong();
+			long[] values = new long[buf.getInt()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = buf.getLong();
+			}
+			return new Entry(kind, key, day, values);
+		}
+	}
+}
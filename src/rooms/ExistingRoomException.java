@@ -1,8 +1,20 @@
 package rooms;
 
+/**
+ * Thrown when a room being added has the same number as a room already in
+ * the system
+ */
 @SuppressWarnings("serial")
-class ExistingRoomException extends Exception{
-	ExistingRoomException(){
-		super();
+public class ExistingRoomException extends Exception{
+	private final transient Room existing;
+	
+	public ExistingRoomException(Room existing){
+		super("Room " + existing.getRoomNumber() + " already exists");
+		this.existing = existing;
 	}
+	
+	/**
+	 * @return The room already in the system
+	 */
+	public Room getExisting() { return this.existing; }
 }
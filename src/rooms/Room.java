@@ -4,19 +4,25 @@ import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Serializable;
-import java.time.LocalDate;
-import java.time.LocalTime;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import fileio.FileIO;
+import fileio.Journal;
+import fileio.RecordCodec;
+import fileio.RecordHeader;
+import metrics.Metrics;
 import ui.Input;
 import ui.Output;
 
 public class Room implements Serializable, Comparable<Room> {
-	private static HashMap<Integer, Room> rooms;
+	private static Map<Integer, Room>     rooms;
+	private static Journal<Integer, Room> journal;
 	private static final long             serialVersionUID = 1L;
-	private static final String           PATH             = "rooms.bin";
+	private static final String           PATH             = FileIO.dataPath("rooms.bin");
 
 	private int     roomNumber;
 	private int     numComputers;
@@ -24,11 +30,19 @@ public class Room implements Serializable, Comparable<Room> {
 	private boolean hasSmartboard;
 	private boolean hasPrinter;
 
+	// Position of the room in the RoomCatalog
+	transient int ordinal;
+
 	static {
-		rooms = new HashMap<Integer, Room>();
+		long start = System.nanoTime();
+		rooms = new ConcurrentHashMap<Integer, Room>();
+		journal = new Journal<Integer, Room>(PATH, rooms, new Codec(), () -> rooms.size());
 		Output.console("Attempting to load Rooms file...");
 		try {
-			unpack(FileIO.load(PATH));
+			RecordHeader header = journal.load(Room::unpack);
+			if (header != null) {
+				Output.console("Loaded %s rooms (File updated %s)", header.getCount(), header.getSaved());
+			}
 		}
 		// TODO handle these exceptions in a more user-friendly manner
 		catch (ClassNotFoundException e) {
@@ -41,6 +55,27 @@ public class Room implements Serializable, Comparable<Room> {
 			Output.consoleError("Something went wrong loading rooms");
 			e.printStackTrace();
 		}
+		
+		RoomCatalog.rebuild(rooms.values());
+		Metrics.timer("load.rooms").record(start);
+	}
+	
+	/**
+	 * Used by the codec to build rooms loaded from file
+	 */
+	private Room() {
+	}
+	
+	/**
+	 * Makes a room which is never saved, that sorts before every room in
+	 * the {@link RoomCatalog} with at least the given number of computers
+	 */
+	static Room probe(int numComputers) {
+		Room probe = new Room();
+		probe.roomNumber = Integer.MIN_VALUE;
+		probe.numComputers = numComputers;
+		probe.breakoutSeats = Integer.MIN_VALUE;
+		return probe;
 	}
 
 	/**
@@ -61,6 +96,10 @@ public class Room implements Serializable, Comparable<Room> {
 	 */
 	private Room(int roomNumber, int numComputers, int breakoutSeats, boolean hasSmartboard, boolean hasPrinter)
 			throws ExistingRoomException {
+		if (rooms.containsKey(roomNumber)) {
+			throw new ExistingRoomException(rooms.get(roomNumber));
+		}
+		
 		if (hasSmartboard && numComputers == 0)
 			Output.consoleWarn(
 					"Room %s created with no computers but has a smartboard - doesnt seem right",
@@ -76,17 +115,51 @@ public class Room implements Serializable, Comparable<Room> {
 		this.hasSmartboard = hasSmartboard;
 		this.hasPrinter = hasPrinter;
 
-		rooms.put(roomNumber, this);
+		// Checked again with the journal locked, so two rooms with the same
+		// number can't be added at once
+		synchronized (journal) {
+			if (rooms.containsKey(roomNumber)) {
+				throw new ExistingRoomException(rooms.get(roomNumber));
+			}
 
-		try {
-			save();
-		} catch (IOException e) {
-			Output.consoleError("Failed trying to save Rooms");
-			e.printStackTrace();
-		} catch (Exception e) {
-			Output.consoleError("Failed trying to save Rooms");
-			e.printStackTrace();
+			RoomCatalog.add(this);
+			try {
+				journal.put(roomNumber, this);
+			} catch (IOException e) {
+				Output.consoleError("Failed trying to save Rooms");
+				e.printStackTrace();
+			} catch (Exception e) {
+				Output.consoleError("Failed trying to save Rooms");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Adds a room to the system
+	 * 
+	 * @param roomNumber
+	 *            The room number
+	 * @param numComputers
+	 *            Number of computers in the room
+	 * @param breakoutSeats
+	 *            Number of breakout seats in the room
+	 * @param hasSmartboard
+	 *            True if the room has a smartboard
+	 * @param hasPrinter
+	 *            True if the room has a printer
+	 * @return The new room
+	 * @throws ExistingRoomException
+	 *             If a room with the number already exists
+	 * @throws IllegalArgumentException
+	 *             If any of the numbers are negative
+	 */
+	public static Room create(int roomNumber, int numComputers, int breakoutSeats, boolean hasSmartboard,
+			boolean hasPrinter) throws ExistingRoomException {
+		if (roomNumber < 0 || numComputers < 0 || breakoutSeats < 0) {
+			throw new IllegalArgumentException("Room numbers, computers and breakout seats can't be negative");
 		}
+		return new Room(roomNumber, numComputers, breakoutSeats, hasSmartboard, hasPrinter);
 	}
 
 	public int getRoomNumber() { return this.roomNumber; }
@@ -146,11 +219,11 @@ public class Room implements Serializable, Comparable<Room> {
 		} while (!Input.getYesNo("Are these details correct?\n" + str));
 
 		try {
-			return new Room(roomNumber, numComputers, breakoutSeats,
+			return create(roomNumber, numComputers, breakoutSeats,
 					hasSmartboard, hasPrinter);
 		} catch (ExistingRoomException e) {
 			Output.userError("A room with that number already exists!");
-			return findRoom(roomNumber);
+			return e.getExisting();
 		}
 	}
 
@@ -162,11 +235,7 @@ public class Room implements Serializable, Comparable<Room> {
 	 * @return A room if one has the given room number, otherwise null
 	 */
 	public static Room findRoom(int roomNumber) {
-		for (Room r : rooms.values()) {
-			if (r.roomNumber == roomNumber) { return r; }
-		}
-
-		return null;
+		return rooms.get(roomNumber);
 	}
 
 	/**
@@ -225,29 +294,8 @@ public class Room implements Serializable, Comparable<Room> {
 	}
 
 	/**
-	 * Saves a map to a file with the following information:
-	 * <ol>
-	 * <li>The amount of records in the map</li>
-	 * <li>A map with all saved rooms</li>
-	 * <li>The date the file was saved</li>
-	 * <li>The time the file was saved</li>
-	 * </ol>
-	 * 
-	 * @throws IOException
-	 */
-	private static void save() throws IOException {
-		HashMap<String, Object> dat = new HashMap<String, Object>();
-		dat.put("count", rooms.size());
-		dat.put("rooms", rooms);
-		dat.put("date", LocalDate.now());
-		dat.put("time", LocalTime.now());
-
-		FileIO.save(dat, PATH);
-	}
-
-	/**
-	 * Unpacks the data from a hashmap loaded from file into a useable
-	 * format
+	 * Unpacks the data from a hashmap loaded from a file saved by an older
+	 * version of the system into a useable format
 	 * 
 	 * @param hashMap
 	 *            A hashmap with data about the rooms.
@@ -256,7 +304,7 @@ public class Room implements Serializable, Comparable<Room> {
 	private static void unpack(HashMap<Object, Object> hashMap) {
 		if (hashMap == null) { return; }
 
-		rooms = (HashMap<Integer, Room>) hashMap.get("rooms");
+		rooms.putAll((HashMap<Integer, Room>) hashMap.get("rooms"));
 
 		Output.console("Loaded %s rooms (File updated %s, %s)",
 				hashMap.get("count"), hashMap.get("date"), hashMap.get("time"));
@@ -271,4 +319,40 @@ public class Room implements Serializable, Comparable<Room> {
 	public String toString() {
 		return Integer.toString(this.roomNumber);
 	}
+	
+	/**
+	 * Saves rooms as [room number (4 bytes)][computers (4 bytes)][breakout
+	 * seats (4 bytes)][flags (1 byte)]
+	 */
+	private static final class Codec implements RecordCodec<Integer, Room> {
+		private static final byte SMARTBOARD = 1;
+		private static final byte PRINTER    = 2;
+
+		@Override
+		public short version() { return 1; }
+
+		@Override
+		public Integer keyOf(Room r) { return r.roomNumber; }
+
+		@Override
+		public int size(Room r) { return 13; }
+
+		@Override
+		public void write(Room r, ByteBuffer buf) {
+			buf.putInt(r.roomNumber).putInt(r.numComputers).putInt(r.breakoutSeats);
+			buf.put((byte) ((r.hasSmartboard ? SMARTBOARD : 0) | (r.hasPrinter ? PRINTER : 0)));
+		}
+
+		@Override
+		public Room read(ByteBuffer buf, short version) {
+			Room r = new Room();
+			r.roomNumber = buf.getInt();
+			r.numComputers = buf.getInt();
+			r.breakoutSeats = buf.getInt();
+			byte flags = buf.get();
+			r.hasSmartboard = (flags & SMARTBOARD) != 0;
+			r.hasPrinter = (flags & PRINTER) != 0;
+			return r;
+		}
+	}
 }
@@ -0,0 +1,116 @@
+package rooms;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+
+/**
+ * Index of every room in the system by the equipment it has. Rooms are kept
+ * sorted by their number of computers and then their number of breakout
+ * seats, with a bit set each for the rooms which have a printer and the
+ * rooms which have a smartboard.
+ * <p>
+ * The catalog is kept up to date by {@link Room} as rooms are added, so
+ * finding a room never needs to copy or sort the list of rooms. Rooms can
+ * be found from any thread without locking: the equipment bits are copied
+ * when a room is added rather than changed in place, and the room only
+ * joins the sorted set once its bits are in place.
+ */
+public final class RoomCatalog {
+	private static final Comparator<Room> ORDER = Comparator.comparingInt(Room::getComputers)
+			.thenComparingInt(Room::getBreakoutSeats).thenComparingInt(Room::getRoomNumber);
+
+	private static final ConcurrentSkipListSet<Room> sorted      = new ConcurrentSkipListSet<Room>(ORDER);
+	private static final ArrayList<Room>             byOrdinal   = new ArrayList<Room>();
+	private static volatile BitSet                   printers    = new BitSet();
+	private static volatile BitSet                   smartboards = new BitSet();
+
+	private RoomCatalog() {
+	}
+
+	/**
+	 * Adds a room to the catalog, giving it the next free ordinal
+	 */
+	static synchronized void add(Room r) {
+		r.ordinal = byOrdinal.size();
+		byOrdinal.add(r);
+		printers = with(printers, r.ordinal, r.hasPrinter());
+		smartboards = with(smartboards, r.ordinal, r.hasSmartboard());
+		sorted.add(r);
+	}
+
+	private static BitSet with(BitSet bits, int index, boolean value) {
+		BitSet copy = (BitSet) bits.clone();
+		copy.set(index, value);
+		return copy;
+	}
+
+	/**
+	 * Rebuilds the catalog from the given rooms
+	 */
+	static synchronized void rebuild(Iterable<Room> rooms) {
+		sorted.clear();
+		byOrdinal.clear();
+		printers = new BitSet();
+		smartboards = new BitSet();
+		for (Room r : rooms) {
+			add(r);
+		}
+	}
+
+	/**
+	 * Finds the room with the fewest computers, then the fewest breakout
+	 * seats, which meets all of the given requirements. Rooms are checked in
+	 * that order, so the search stops at the first suitable room.
+	 *
+	 * @param numComputers
+	 *            Minimum number of computers
+	 * @param breakoutSeats
+	 *            Minimum number of breakout seats
+	 * @param hasPrinter
+	 *            Whether the room should have a printer
+	 * @param hasSmartboard
+	 *            Whether the room should have a smartboard
+	 * @param available
+	 *            Any other check the room must pass, such as being free at
+	 *            a certain time
+	 * @return The best fitting room, or null if no room is suitable
+	 */
+	public static Room findFirst(int numComputers, int breakoutSeats, boolean hasPrinter, boolean hasSmartboard,
+			Predicate<Room> available) {
+		for (Room r : sorted.tailSet(Room.probe(numComputers), true)) {
+			if (fits(r, breakoutSeats, hasPrinter, hasSmartboard) && available.test(r)) {
+				return r;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Finds every room which meets all of the given requirements, in the
+	 * same order that {@link #findFirst} checks them, so the best fitting
+	 * room comes first.
+	 *
+	 * @return The suitable rooms, best fitting first
+	 */
+	public static List<Room> findAll(int numComputers, int breakoutSeats, boolean hasPrinter, boolean hasSmartboard,
+			Predicate<Room> available) {
+		ArrayList<Room> found = new ArrayList<Room>();
+		for (Room r : sorted.tailSet(Room.probe(numComputers), true)) {
+			if (fits(r, breakoutSeats, hasPrinter, hasSmartboard) && available.test(r)) {
+				found.add(r);
+			}
+		}
+
+		return found;
+	}
+
+	private static boolean fits(Room r, int breakoutSeats, boolean hasPrinter, boolean hasSmartboard) {
+		return r.getBreakoutSeats() >= breakoutSeats && printers.get(r.ordinal) == hasPrinter
+				&& smartboards.get(r.ordinal) == hasSmartboard;
+	}
+}
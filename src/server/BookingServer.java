@@ -0,0 +1,506 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import bookings.Availability;
+import bookings.Booking;
+import bookings.BookingService;
+import bookings.NoRoomFoundException;
+import bookings.RoomFinder;
+import clients.Client;
+import clients.ClientIndex;
+import clients.ExistingClientException;
+import metrics.Metrics;
+import rooms.ExistingRoomException;
+import rooms.Room;
+import ui.Output;
+
+/**
+ * Serves the Room Booking System over HTTP, so many desks can share one set
+ * of rooms, clients and bookings. Requests and responses are JSON, and
+ * parameters can be given in the query string, a JSON object body, or
+ * both.
+ * <ul>
+ * <li>{@code GET /rooms} lists the rooms, {@code POST /rooms} adds one from
+ * roomNumber, computers, breakoutSeats, smartboard and printer</li>
+ * <li>{@code GET /rooms/best-fit} finds the best fitting free room for
+ * computers, breakoutSeats, printer, smartboard, date, time and hours</li>
+ * <li>{@code GET /availability} finds the next free times for the same
+ * parameters, with optional to and count</li>
+ * <li>{@code GET /clients?q=} searches for clients, {@code GET /clients/ID}
+ * gets one, {@code POST /clients} adds one from firstName, lastName,
+ * telephone and email</li>
+ * <li>{@code GET /bookings} lists bookings, optionally for a clientId and
+ * from and to dates, {@code GET /bookings/ID} gets one,
+ * {@code POST /bookings} books the best fitting room for the best-fit
+ * parameters and a clientId, {@code DELETE /bookings/ID} cancels one, and
+ * {@code DELETE /bookings} cancels every booking matching all of the room,
+ * clientId, from and to, returning the bookings cancelled</li>
+ * <li>{@code GET /metrics} reads the counters and timers kept by
+ * {@link Metrics}, as JSON or with {@code format=text} as a table</li>
+ * </ul>
+ * Mistakes in a request get a 400, something that doesn't exist a 404, and
+ * a clash with an existing room or client, or no free room, a 409.
+ * <p>
+ * Each request is handled on a virtual thread when the JVM has them (Java
+ * 21 or later), or otherwise on a thread of its own from a cached pool.
+ * The system's own locking keeps the bookings safe whichever is used.
+ */
+public final class BookingServer {
+	private static final int DEFAULT_PORT = 8080;
+	// Most results returned by a client search or availability search
+	private static final int MAX_RESULTS  = 50;
+
+	private final HttpServer      http;
+	private final ExecutorService executor;
+
+	/**
+	 * Something a request handler sends back
+	 */
+	private static final class Response {
+		final int    status;
+		final String body;
+		final String type;
+
+		Response(int status, String body) {
+			this(status, body, "application/json; charset=utf-8");
+		}
+
+		Response(int status, String body, String type) {
+			this.status = status;
+			this.body = body;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * Thrown by a handler to send back an error
+	 */
+	@SuppressWarnings("serial")
+	static final class HttpError extends RuntimeException {
+		final int status;
+
+		HttpError(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	private interface Handler {
+		Response handle(String method, String id, Map<String, String> params) throws Exception;
+	}
+
+	/**
+	 * Creates a server listening on a port, which isn't started yet
+	 *
+	 * @param port
+	 *            The port to listen on, or 0 for any free port
+	 * @throws IOException
+	 *             If the port can't be listened on
+	 */
+	public BookingServer(int port) throws IOException {
+		this.http = HttpServer.create(new InetSocketAddress(port), 0);
+		this.executor = newExecutor();
+		http.setExecutor(executor);
+
+		route("/rooms", this::rooms);
+		route("/availability", this::availability);
+		route("/clients", this::clients);
+		route("/bookings", this::bookings);
+		route("/metrics", this::metrics);
+	}
+
+	/**
+	 * Runs a server from the command line until the JVM is stopped
+	 *
+	 * @param args
+	 *            The port to listen on, {@value #DEFAULT_PORT} if not given
+	 * @return 0 once the server has started, or 2 if the port isn't valid
+	 */
+	public static int run(String[] args) {
+		int port = DEFAULT_PORT;
+		try {
+			if (args.length > 0) {
+				port = Integer.parseInt(args[0]);
+			}
+			BookingServer server = new BookingServer(port);
+			server.start();
+			Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+			return 0;
+		} catch (NumberFormatException e) {
+			Output.consoleError("Usage: serve [port]");
+			return 2;
+		} catch (IOException e) {
+			Output.consoleError("Couldn't listen on port %s: %s", port, e.getMessage());
+			return 1;
+		}
+	}
+
+	public void start() {
+		http.start();
+		Output.console("Booking server listening on port %s", getPort());
+	}
+
+	/**
+	 * Stops taking requests, and waits a moment for those being handled to
+	 * finish
+	 */
+	public void stop() {
+		http.stop(1);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public int getPort() { return http.getAddress().getPort(); }
+
+	/**
+	 * Makes an executor which starts a virtual thread per task if the JVM
+	 * has them. Found by reflection so the system still runs on Java 17.
+	 */
+	private static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	private Response rooms(String method, String id, Map<String, String> params) throws Exception {
+		if ("best-fit".equals(id) && method.equals("GET")) {
+			Room room = new RoomFinder().getBestFit(number(params, "computers", 0), number(params, "breakoutSeats", 0),
+					flag(params, "printer"), flag(params, "smartboard"), date(params, "date"), time(params, "time"),
+					hours(params));
+			if (room == null) {
+				throw new HttpError(404, "No room found for the given parameters");
+			}
+			return new Response(200, room(new Json(), room).toString());
+		}
+		if (id == null && method.equals("GET")) {
+			Json json = new Json().beginArray();
+			for (Room room : Room.getRooms()) {
+				room(json, room);
+			}
+			return new Response(200, json.endArray().toString());
+		}
+		if (id == null && method.equals("POST")) {
+			try {
+				Room room = BookingService.addRoom(number(params, "roomNumber", -1), number(params, "computers", 0),
+						number(params, "breakoutSeats", 0), flag(params, "smartboard"), flag(params, "printer"));
+				return new Response(201, room(new Json(), room).toString());
+			} catch (ExistingRoomException e) {
+				throw new HttpError(409, e.getMessage());
+			}
+		}
+		throw notFound(method, id);
+	}
+
+	private Response availability(String method, String id, Map<String, String> params) {
+		if (id != null || !method.equals("GET")) {
+			throw notFound(method, id);
+		}
+
+		LocalDate from = date(params, "date");
+		LocalDate to = params.containsKey("to") ? date(params, "to") : from.plusDays(30);
+		List<Availability> found = BookingService.findAvailable(number(params, "computers", 0),
+				number(params, "breakoutSeats", 0), flag(params, "printer"), flag(params, "smartboard"), from,
+				time(params, "time"), to, hours(params),
+				Math.min(number(params, "count", 5), MAX_RESULTS));
+
+		Json json = new Json().beginArray();
+		for (Availability a : found) {
+			json.beginObject().field("room", a.getRoom().getRoomNumber()).field("date", a.getDate().toString())
+					.field("time", a.getTime().toString()).endObject();
+		}
+		return new Response(200, json.endArray().toString());
+	}
+
+	private Response clients(String method, String id, Map<String, String> params) throws Exception {
+		if (id != null && method.equals("GET")) {
+			return new Response(200, client(new Json(), findClient(id)).toString());
+		}
+		if (id == null && method.equals("GET")) {
+			Collection<Client> found = params.containsKey("q") ? ClientIndex.search(params.get("q"), MAX_RESULTS)
+					: Client.getClients();
+			Json json = new Json().beginArray();
+			for (Client c : found) {
+				client(json, c);
+			}
+			return new Response(200, json.endArray().toString());
+		}
+		if (id == null && method.equals("POST")) {
+			try {
+				Client c = BookingService.addClient(params.get("firstName"), params.get("lastName"),
+						params.get("telephone"), params.get("email"));
+				return new Response(201, client(new Json(), c).toString());
+			} catch (ExistingClientException e) {
+				throw new HttpError(409, e.getMessage());
+			}
+		}
+		throw notFound(method, id);
+	}
+
+	private Response bookings(String method, String id, Map<String, String> params) throws Exception {
+		if (id != null && method.equals("GET")) {
+			Booking b = BookingService.findBooking(id);
+			if (b == null) {
+				throw new HttpError(404, "There is no booking " + id);
+			}
+			return new Response(200, booking(new Json(), b).toString());
+		}
+		if (id != null && method.equals("DELETE")) {
+			if (!BookingService.cancel(id)) {
+				throw new HttpError(404, "There is no booking " + id);
+			}
+			return new Response(204, null);
+		}
+		if (id == null && method.equals("GET")) {
+			LocalDate from = params.containsKey("from") ? date(params, "from") : LocalDate.MIN;
+			LocalDate to = params.containsKey("to") ? date(params, "to") : LocalDate.MAX;
+			Collection<Booking> found;
+			if (params.containsKey("clientId")) {
+				found = Booking.findByClient(findClient(params.get("clientId")));
+			} else if (params.containsKey("from") || params.containsKey("to")) {
+				found = Booking.findBetween(from, to);
+			} else {
+				found = Booking.allBookings();
+			}
+
+			Json json = new Json().beginArray();
+			for (Booking b : found) {
+				if (!b.getDate().isBefore(from) && !b.getDate().isAfter(to)) {
+					booking(json, b);
+				}
+			}
+			return new Response(200, json.endArray().toString());
+		}
+		if (id == null && method.equals("DELETE")) {
+			Json json = new Json().beginArray();
+			for (Booking b : BookingService.cancelAll(cancelFilter(params))) {
+				booking(json, b);
+			}
+			return new Response(200, json.endArray().toString());
+		}
+		if (id == null && method.equals("POST")) {
+			Client client = params.get("clientId") == null ? null : findClient(params.get("clientId"));
+			try {
+				Booking b = BookingService.book(number(params, "computers", 0), number(params, "breakoutSeats", 0),
+						flag(params, "printer"), flag(params, "smartboard"), date(params, "date"),
+						time(params, "time"), hours(params), client);
+				return new Response(201, booking(new Json(), b).toString());
+			} catch (NoRoomFoundException e) {
+				throw new HttpError(409, e.getMessage());
+			}
+		}
+		throw notFound(method, id);
+	}
+
+	private Response metrics(String method, String id, Map<String, String> params) {
+		if (id != null || !method.equals("GET")) {
+			throw notFound(method, id);
+		}
+		if ("text".equals(params.get("format"))) {
+			return new Response(200, Metrics.toText(), "text/plain; charset=utf-8");
+		}
+		return new Response(200, Metrics.toJson());
+	}
+
+	private static Json room(Json json, Room r) {
+		return json.beginObject().field("roomNumber", r.getRoomNumber()).field("computers", r.getComputers())
+				.field("breakoutSeats", r.getBreakoutSeats()).field("smartboard", r.hasSmartboard())
+				.field("printer", r.hasPrinter()).endObject();
+	}
+
+	private static Json client(Json json, Client c) {
+		return json.beginObject().field("id", c.getID()).field("firstName", c.getFName())
+				.field("lastName", c.getLName()).field("telephone", c.getPhoneNum()).field("email", c.getEmail())
+				.endObject();
+	}
+
+	private static Json booking(Json json, Booking b) {
+		Client c = b.getClient();
+		return json.beginObject().field("id", b.getID()).field("clientId", b.getClientID())
+				.field("client", c == null ? null : c.toString()).field("room", b.getRoomNumber())
+				.field("date", b.getDate().toString()).field("startTime", b.getTime().toString())
+				.field("lengthHours", b.getLength()).endObject();
+	}
+
+	private static Client findClient(String id) {
+		Client c = Client.findByID(parseNumber(id, "client ID"));
+		if (c == null) {
+			throw new HttpError(404, "There is no client " + id);
+		}
+		return c;
+	}
+
+	private static HttpError notFound(String method, String id) {
+		return new HttpError(id == null ? 405 : 404, method + " isn't supported here");
+	}
+
+	/**
+	 * Adds a handler for a path and everything under it. The part of the
+	 * path after it, if there is one, is given to the handler as the ID.
+	 */
+	private void route(String path, Handler handler) {
+		http.createContext(path, exchange -> {
+			Response response;
+			try {
+				String rest = exchange.getRequestURI().getPath().substring(path.length());
+				String id = rest.isEmpty() || rest.equals("/") ? null : rest.substring(1);
+				response = handler.handle(exchange.getRequestMethod(), id, params(exchange));
+			} catch (HttpError e) {
+				response = error(e.status, e.getMessage());
+			} catch (IllegalArgumentException e) {
+				response = error(400, e.getMessage());
+			} catch (Exception e) {
+				Output.consoleError("Failed handling %s %s", exchange.getRequestMethod(), exchange.getRequestURI());
+				e.printStackTrace();
+				response = error(500, "Something went wrong");
+			}
+			send(exchange, response);
+		});
+	}
+
+	private static Response error(int status, String message) {
+		return new Response(status, new Json().beginObject().field("error", message).endObject().toString());
+	}
+
+	private static void send(HttpExchange exchange, Response response) throws IOException {
+		try {
+			if (response.body == null) {
+				exchange.sendResponseHeaders(response.status, -1);
+				return;
+			}
+
+			byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", response.type);
+			exchange.sendResponseHeaders(response.status, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Reads the parameters from the query string, then from a JSON body,
+	 * which wins if both have the same one
+	 */
+	private static Map<String, String> params(HttpExchange exchange) throws IOException {
+		HashMap<String, String> params = new HashMap<String, String>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				int eq = pair.indexOf('=');
+				String key = eq < 0 ? pair : pair.substring(0, eq);
+				String value = eq < 0 ? "" : pair.substring(eq + 1);
+				params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+			}
+		}
+
+		try (InputStream in = exchange.getRequestBody()) {
+			String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			if (!body.isBlank()) {
+				params.putAll(Json.parse(body));
+			}
+		}
+		return params;
+	}
+
+	private static int number(Map<String, String> params, String name, int otherwise) {
+		String value = params.get(name);
+		return value == null ? otherwise : parseNumber(value, name);
+	}
+
+	/**
+	 * @return The length of a booking in hours, 1 if it isn't given
+	 */
+	private static int hours(Map<String, String> params) {
+		int hours = number(params, "hours", 1);
+		if (hours < 1 || hours > Booking.MAX_HOURS) {
+			throw new IllegalArgumentException("hours must be from 1 to " + Booking.MAX_HOURS + ", not " + hours);
+		}
+		return hours;
+	}
+
+	/**
+	 * Works out which bookings {@code DELETE /bookings} cancels. The room,
+	 * clientId, from and to that are given must all match, and at least one
+	 * must be given so the whole store can't be cancelled by accident.
+	 */
+	static Predicate<Booking> cancelFilter(Map<String, String> params) {
+		boolean byRoom = params.containsKey("room");
+		boolean byClient = params.containsKey("clientId");
+		if (!byRoom && !byClient && !params.containsKey("from") && !params.containsKey("to")) {
+			throw new HttpError(400, "Give a room, clientId, from or to to cancel bookings");
+		}
+		int room = byRoom ? parseNumber(params.get("room"), "room") : 0;
+		if (room < 0) {
+			throw new IllegalArgumentException("room can't be negative, not " + room);
+		}
+		int clientID = byClient ? findClient(params.get("clientId")).getID() : 0;
+		LocalDate from = params.containsKey("from") ? date(params, "from") : LocalDate.MIN;
+		LocalDate to = params.containsKey("to") ? date(params, "to") : LocalDate.MAX;
+
+		return b -> (!byRoom || b.getRoomNumber() == room) && (!byClient || b.getClientID() == clientID)
+				&& !b.getDate().isBefore(from) && !b.getDate().isAfter(to);
+	}
+
+	private static int parseNumber(String value, String name) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be a whole number, not " + value);
+		}
+	}
+
+	private static boolean flag(Map<String, String> params, String name) {
+		return Boolean.parseBoolean(params.get(name));
+	}
+
+	private static LocalDate date(Map<String, String> params, String name) {
+		String value = params.get(name);
+		if (value == null) {
+			throw new IllegalArgumentException(name + " is needed, as yyyy-mm-dd");
+		}
+		try {
+			return LocalDate.parse(value);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException(name + " must be a date as yyyy-mm-dd, not " + value);
+		}
+	}
+
+	private static LocalTime time(Map<String, String> params, String name) {
+		String value = params.get(name);
+		if (value == null) {
+			throw new IllegalArgumentException(name + " is needed, as hh:mm");
+		}
+		try {
+			return LocalTime.parse(value);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException(name + " must be a time as hh:mm, not " + value);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The little JSON the booking server needs: reading a flat object of
+ * strings, numbers and booleans from a request, and building objects and
+ * arrays for a response.
+ */
+final class Json {
+	private final StringBuilder sb    = new StringBuilder();
+	// Whether the next value is the first in its object or array
+	private boolean             first = true;
+
+	/**
+	 * Reads an object whose values are all strings, numbers, booleans or
+	 * null. Every value is returned as a string, null as null.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the text isn't a flat JSON object
+	 */
+	static Map<String, String> parse(String text) {
+		Reader in = new Reader(text);
+		HashMap<String, String> found = new HashMap<String, String>();
+		in.expect('{');
+		if (!in.skip('}')) {
+			do {
+				String key = in.string();
+				in.expect(':');
+				found.put(key, in.value());
+			} while (in.skip(','));
+			in.expect('}');
+		}
+		in.end();
+		return found;
+	}
+
+	Json beginObject() { return open('{'); }
+
+	Json endObject() { return close('}'); }
+
+	Json beginArray() { return open('['); }
+
+	Json endArray() { return close(']'); }
+
+	/**
+	 * Starts a field of an object, to be followed by its value
+	 */
+	Json key(String key) {
+		separate();
+		quote(key);
+		sb.append(':');
+		first = true;
+		return this;
+	}
+
+	Json value(String value) {
+		separate();
+		if (value == null) {
+			sb.append("null");
+		} else {
+			quote(value);
+		}
+		return this;
+	}
+
+	Json value(long value) {
+		separate();
+		sb.append(value);
+		return this;
+	}
+
+	Json value(boolean value) {
+		separate();
+		sb.append(value);
+		return this;
+	}
+
+	Json field(String key, String value) { return key(key).value(value); }
+
+	Json field(String key, long value) { return key(key).value(value); }
+
+	Json field(String key, boolean value) { return key(key).value(value); }
+
+	@Override
+	public String toString() {
+		return sb.toString();
+	}
+
+	private Json open(char bracket) {
+		separate();
+		sb.append(bracket);
+		first = true;
+		return this;
+	}
+
+	private Json close(char bracket) {
+		sb.append(bracket);
+		first = false;
+		return this;
+	}
+
+	private void separate() {
+		if (!first) {
+			sb.append(',');
+		}
+		first = false;
+	}
+
+	private void quote(String value) {
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			if (ch == '"' || ch == '\\') {
+				sb.append('\\').append(ch);
+			} else if (ch == '\n') {
+				sb.append("\\n");
+			} else if (ch == '\r') {
+				sb.append("\\r");
+			} else if (ch == '\t') {
+				sb.append("\\t");
+			} else if (ch < 0x20) {
+				sb.append(String.format("\\u%04x", (int) ch));
+			} else {
+				sb.append(ch);
+			}
+		}
+		sb.append('"');
+	}
+
+	private static final class Reader {
+		private final String text;
+		private int          pos;
+
+		Reader(String text) {
+			this.text = text == null ? "" : text;
+		}
+
+		void expect(char ch) {
+			if (!skip(ch)) {
+				throw new IllegalArgumentException("Expected '" + ch + "' at " + pos + " of the request body");
+			}
+		}
+
+		boolean skip(char ch) {
+			space();
+			if (pos < text.length() && text.charAt(pos) == ch) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		void end() {
+			space();
+			if (pos != text.length()) {
+				throw new IllegalArgumentException("Unexpected text at " + pos + " of the request body");
+			}
+		}
+
+		String value() {
+			space();
+			if (pos < text.length() && text.charAt(pos) == '"') {
+				return string();
+			}
+
+			int start = pos;
+			while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0) {
+				pos++;
+			}
+			String word = text.substring(start, pos);
+			if (word.equals("null")) {
+				return null;
+			}
+			if (word.equals("true") || word.equals("false") || word.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+				return word;
+			}
+			throw new IllegalArgumentException("Unexpected value at " + start + " of the request body");
+		}
+
+		String string() {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (pos < text.length()) {
+				char ch = text.charAt(pos++);
+				if (ch == '"') {
+					return sb.toString();
+				}
+				if (ch != '\\') {
+					sb.append(ch);
+					continue;
+				}
+				if (pos >= text.length()) {
+					break;
+				}
+
+				char escaped = text.charAt(pos++);
+				switch (escaped) {
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'u':
+					if (pos + 4 > text.length()) {
+						throw new IllegalArgumentException("Bad escape in the request body");
+					}
+					try {
+						sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Bad escape in the request body");
+					}
+					pos += 4;
+					break;
+				default:
+					sb.append(escaped);
+				}
+			}
+			throw new IllegalArgumentException("Unfinished string in the request body");
+		}
+
+		private void space() {
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+				pos++;
+			}
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package server;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import metrics.Metrics;
+import ui.Output;
+
+/**
+ * Puts a {@link BookingServer} under load from many clients at once, and
+ * reports how many requests it handled each second and how long they took.
+ * <p>
+ * Each client keeps sending a mix of requests, one at a time: finding the
+ * best fitting room, making a booking, listing the bookings for a week, and
+ * cancelling one of the bookings it made. Rooms are added first if the
+ * server has none. Without a URL a server is started in this JVM, using the
+ * files in the working folder, so it is best run from an empty folder, and
+ * its {@link Metrics} are written out at the end.
+ *
+ * <pre>
+ * ui.Main loadtest [--url http://host:port] [--clients N] [--seconds N]
+ * </pre>
+ */
+public final class LoadTest {
+	private static final String[]  OPERATIONS = { "best-fit", "book", "list", "cancel" };
+	private static final int       ROOMS      = 100;
+	// Bookings are spread over this many days from tomorrow
+	private static final int       DAYS       = 60;
+	private static final Pattern   BOOKING_ID = Pattern.compile("\"id\":\"([^\"]+)\"");
+
+	private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+	private final String     url;
+
+	/**
+	 * The latencies seen by one client, in nanoseconds, for each operation
+	 */
+	private static final class Results {
+		final long[][] latencies = new long[OPERATIONS.length][1024];
+		final int[]    counts    = new int[OPERATIONS.length];
+		int            errors;
+
+		void add(int operation, long nanos) {
+			if (counts[operation] == latencies[operation].length) {
+				latencies[operation] = Arrays.copyOf(latencies[operation], counts[operation] * 2);
+			}
+			latencies[operation][counts[operation]++] = nanos;
+		}
+	}
+
+	private LoadTest(String url) {
+		this.url = url;
+	}
+
+	/**
+	 * Runs a load test from the command line
+	 *
+	 * @return 0 if no requests failed, 1 if any did, or 2 if the arguments
+	 *         were wrong
+	 */
+	public static int run(String[] args) {
+		String url = null;
+		int clients = 32;
+		int seconds = 10;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException(args[i] + " needs a value");
+				}
+				switch (args[i]) {
+				case "--url":
+					url = args[++i];
+					break;
+				case "--clients":
+					clients = Integer.parseInt(args[++i]);
+					break;
+				case "--seconds":
+					seconds = Integer.parseInt(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			Output.consoleError(e.getMessage());
+			Output.consoleError("Usage: loadtest [--url http://host:port] [--clients N] [--seconds N]");
+			return 2;
+		}
+
+		BookingServer server = null;
+		try {
+			if (url == null) {
+				server = new BookingServer(0);
+				server.start();
+				url = "http://localhost:" + server.getPort();
+			}
+			int code = new LoadTest(url).load(clients, seconds);
+			if (server != null) {
+				Output.console("Server metrics:%n%s", Metrics.toText());
+			}
+			return code;
+		} catch (IOException e) {
+			Output.consoleError("Load test failed: %s", e.getMessage());
+			return 1;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 1;
+		} finally {
+			if (server != null) {
+				server.stop();
+			}
+		}
+	}
+
+	private int load(int clients, int seconds) throws IOException, InterruptedException {
+		if (send("GET", "/rooms", null).body().equals("[]")) {
+			for (int i = 1; i <= ROOMS; i++) {
+				send("POST", "/rooms", "{\"roomNumber\":" + i + ",\"computers\":" + (i % 30) + ",\"breakoutSeats\":"
+						+ (i % 8) + ",\"printer\":" + (i % 2 == 0) + ",\"smartboard\":" + (i % 3 == 0) + "}");
+			}
+			Output.console("Added %s rooms", ROOMS);
+		}
+
+		Output.console("Running %s clients against %s for %ss", clients, url, seconds);
+		long end = System.nanoTime() + seconds * 1_000_000_000L;
+		List<Results> results = new ArrayList<Results>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < clients; i++) {
+			Results r = new Results();
+			results.add(r);
+			Thread t = new Thread(() -> client(r, end), "load-" + i);
+			threads.add(t);
+			t.start();
+		}
+
+		long start = System.nanoTime();
+		for (Thread t : threads) {
+			t.join();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		return report(results, elapsed);
+	}
+
+	/**
+	 * Keeps sending requests until the end time
+	 */
+	private void client(Results results, long end) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		ArrayDeque<String> made = new ArrayDeque<String>();
+		while (System.nanoTime() < end) {
+			LocalDate date = LocalDate.now().plusDays(1 + random.nextInt(DAYS));
+			String needs = "computers=" + random.nextInt(20) + "&breakoutSeats=" + random.nextInt(6) + "&date="
+					+ date + "&time=" + String.format("%02d:00", 8 + random.nextInt(10)) + "&hours="
+					+ (1 + random.nextInt(3));
+
+			int operation = random.nextInt(10);
+			operation = operation < 5 ? 0 : operation < 8 ? 1 : operation < 9 ? 2 : 3;
+			if (operation == 3 && made.isEmpty()) {
+				operation = 1;
+			}
+
+			long t0 = System.nanoTime();
+			try {
+				HttpResponse<String> response;
+				switch (operation) {
+				case 0:
+					response = send("GET", "/rooms/best-fit?" + needs, null);
+					break;
+				case 1:
+					response = send("POST", "/bookings?" + needs, null);
+					if (response.statusCode() == 201) {
+						Matcher m = BOOKING_ID.matcher(response.body());
+						if (m.find()) {
+							made.add(m.group(1));
+						}
+					}
+					break;
+				case 2:
+					response = send("GET", "/bookings?from=" + date + "&to=" + date.plusDays(6), null);
+					break;
+				default:
+					response = send("DELETE", "/bookings/" + made.poll(), null);
+				}
+
+				results.add(operation, System.nanoTime() - t0);
+				if (response.statusCode() >= 500) {
+					results.errors++;
+				}
+			} catch (IOException e) {
+				results.errors++;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private int report(List<Results> results, double elapsed) {
+		int errors = 0;
+		long[] all = new long[0];
+		for (int op = 0; op < OPERATIONS.length; op++) {
+			long[] latencies = new long[0];
+			for (Results r : results) {
+				int n = latencies.length;
+				latencies = Arrays.copyOf(latencies, n + r.counts[op]);
+				System.arraycopy(r.latencies[op], 0, latencies, n, r.counts[op]);
+			}
+			summarise(OPERATIONS[op], latencies, elapsed);
+
+			int n = all.length;
+			all = Arrays.copyOf(all, n + latencies.length);
+			System.arraycopy(latencies, 0, all, n, latencies.length);
+		}
+		for (Results r : results) {
+			errors += r.errors;
+		}
+
+		summarise("all", all, elapsed);
+		Output.console("%s requests failed", errors);
+		return errors == 0 ? 0 : 1;
+	}
+
+	private static void summarise(String name, long[] latencies, double elapsed) {
+		if (latencies.length == 0) {
+			Output.console("%-8s no requests", name);
+			return;
+		}
+
+		Arrays.sort(latencies);
+		Output.console("%-8s %8d requests %9.0f/s  p50 %7.2fms  p99 %7.2fms  max %7.2fms", name,
+				latencies.length, latencies.length / elapsed, percentile(latencies, 0.50) / 1e6,
+				percentile(latencies, 0.99) / 1e6, latencies[latencies.length - 1] / 1e6);
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted[(int) Math.max(0, Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1))];
+	}
+
+	private HttpResponse<String> send(String method, String path, String body)
+			throws IOException, InterruptedException {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(url + path)).timeout(Duration.ofSeconds(30))
+				.method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+						: HttpRequest.BodyPublishers.ofString(body))
+				.build();
+		return http.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+}
@@ -0,0 +1,237 @@
+package ui;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Formatter;
+import java.util.IllegalFormatException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the console messages of {@link Output} from one background thread,
+ * so logging never waits on the terminal.
+ * <p>
+ * Messages are put in a bounded ring buffer that many threads can add to
+ * without locking: each slot has a sequence number saying whether it is
+ * free to claim or ready to read. A thread logging only claims a slot and
+ * stores the message, its arguments and the time; the writer thread does
+ * the formatting. Arguments are formatted when the message is written, so
+ * objects changed after being logged may show their new state.
+ * <p>
+ * When the buffer is full a message is either dropped, with a count of the
+ * messages dropped written later, or waits for space, depending on how the
+ * log was made. Once the JVM starts shutting down the buffer is written out
+ * and any later messages are written straight away.
+ */
+final class AsyncLog {
+	private static final DateTimeFormatter TIME       = DateTimeFormatter.ofPattern("HH:mm:ss");
+	// How long the writer sleeps when there is nothing to write, unless the
+	// buffer fills past half way first, and how long a message waits between
+	// tries for space when the buffer is full. Not waking the writer for
+	// every message keeps logging free of system calls.
+	private static final long              IDLE_NANOS = 10_000_000L;
+	private static final long              WAIT_NANOS = 50_000L;
+
+	private static final class Slot {
+		// Equal to the slot's position when free to claim, and one more than
+		// it once a message has been stored
+		volatile long    sequence;
+		Output.Level     level;
+		long             millis;
+		String           message;
+		Object[]         args;
+	}
+
+	private final Slot[]        slots;
+	private final int           mask;
+	private final int           half;
+	private final AtomicLong    tail    = new AtomicLong();
+	private final AtomicLong    dropped = new AtomicLong();
+	private final Thread        writer;
+
+	// Only used by the writer thread, or while locked once closed
+	private long                head;
+	private long                reported;
+	private long                second  = Long.MIN_VALUE;
+	private String              stamp;
+	private final StringBuilder text    = new StringBuilder(8192);
+	private final Formatter     format  = new Formatter(text);
+
+	private volatile long       written;
+	private volatile boolean    sleeping;
+	private volatile boolean    closed;
+
+	/**
+	 * @param capacity
+	 *            Most messages waiting to be written, rounded up to a power
+	 *            of two
+	 */
+	AsyncLog(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.slots = new Slot[size];
+		this.mask = size - 1;
+		this.half = size / 2;
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot();
+			slots[i].sequence = i;
+		}
+
+		this.writer = new Thread(this::run, "output-writer");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close, "output-close"));
+	}
+
+	/**
+	 * Adds a message to be written
+	 *
+	 * @param block
+	 *            Whether to wait for space if the buffer is full, rather than
+	 *            drop the message
+	 */
+	void log(Output.Level level, boolean block, String message, Object[] args) {
+		long millis = System.currentTimeMillis();
+		if (closed) {
+			writeNow(level, millis, message, args);
+			return;
+		}
+
+		long position;
+		while ((position = offer(level, millis, message, args)) < 0) {
+			if (!block) {
+				dropped.incrementAndGet();
+				return;
+			}
+			wake();
+			LockSupport.parkNanos(WAIT_NANOS);
+		}
+		if (closed) {
+			// Shutting down began while the message was being added, and
+			// the flush may already have finished, so it is written here
+			// in case the writer never gets to it
+			drain();
+		} else if (position - written >= half && sleeping) {
+			wake();
+		}
+	}
+
+	/**
+	 * Waits until every message logged so far has been written
+	 */
+	void flush() {
+		long target = tail.get();
+		while (written < target && writer.isAlive()) {
+			wake();
+			LockSupport.parkNanos(WAIT_NANOS);
+		}
+	}
+
+	/**
+	 * @return The position the message was put at, or -1 if the buffer is
+	 *         full
+	 */
+	private long offer(Output.Level level, long millis, String message, Object[] args) {
+		while (true) {
+			long position = tail.get();
+			Slot slot = slots[(int) position & mask];
+			long sequence = slot.sequence;
+			if (sequence < position) {
+				return -1;
+			}
+			if (sequence == position && tail.compareAndSet(position, position + 1)) {
+				slot.level = level;
+				slot.millis = millis;
+				slot.message = message;
+				slot.args = args;
+				slot.sequence = position + 1;
+				return position;
+			}
+		}
+	}
+
+	private void wake() {
+		LockSupport.unpark(writer);
+	}
+
+	private void run() {
+		while (true) {
+			if (!drain()) {
+				sleeping = true;
+				LockSupport.parkNanos(this, IDLE_NANOS);
+				sleeping = false;
+			}
+		}
+	}
+
+	/**
+	 * Writes every message that is ready
+	 *
+	 * @return True if anything was written
+	 */
+	private synchronized boolean drain() {
+		long start = head;
+		long lost = dropped.get();
+		if (lost > reported) {
+			line(Output.Level.WARN, System.currentTimeMillis(), "%s log messages were dropped", lost - reported);
+			reported = lost;
+		}
+
+		Slot slot;
+		while ((slot = slots[(int) head & mask]).sequence == head + 1) {
+			line(slot.level, slot.millis, slot.message, slot.args);
+			slot.message = null;
+			slot.args = null;
+			slot.sequence = head + slots.length;
+			head++;
+		}
+
+		if (text.length() > 0) {
+			PrintStream out = System.out;
+			out.print(text);
+			out.flush();
+			text.setLength(0);
+		}
+		written = head;
+		return head != start;
+	}
+
+	private synchronized void writeNow(Output.Level level, long millis, String message, Object[] args) {
+		drain();
+		line(level, millis, message, args);
+		System.out.print(text);
+		System.out.flush();
+		text.setLength(0);
+	}
+
+	private void close() {
+		closed = true;
+		flush();
+	}
+
+	/**
+	 * Formats one message onto the text to write
+	 */
+	private void line(Output.Level level, long millis, String message, Object... args) {
+		if (millis / 1000 != second) {
+			second = millis / 1000;
+			stamp = LocalTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()).format(TIME);
+		}
+
+		text.append('[').append(stamp).append("] ");
+		if (level != Output.Level.INFO) {
+			text.append('[').append(level).append("] ");
+		}
+
+		int length = text.length();
+		try {
+			format.format(message, args);
+		} catch (IllegalFormatException e) {
+			text.setLength(length);
+			text.append(message);
+		}
+		text.append('\n');
+	}
+}
@@ -1,45 +1,101 @@
 package ui;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.swing.JOptionPane;
 
 import bookings.Booking;
 import clients.Client;
+import reports.BatchReport;
 import reports.Report;
+import reports.Utilization;
 import rooms.Room;
+import server.BookingServer;
+import server.LoadTest;
+import workload.Replay;
+import workload.StressTest;
 
 public class Main {
-	// Static block is used to load the Booking, Client and Room classes
-	// before the user can do anything else
-	// Forces rooms, bookings and clients files to load into the system at
-	// the right time.
+	// Static block starts loading the rooms, bookings and clients files
+	// into the system as soon as the program starts, each on its own
+	// thread, so the menu shows straight away. Anything that uses one of
+	// the classes before it has finished loading waits for that class
+	// alone, as the JVM lets only one thread initialise a class.
+	// Utilization follows Booking, as it is built from the bookings.
 	static {
-		try {
-			Class.forName("clients.Client");
-			Class.forName("rooms.Room");
-			Class.forName("bookings.Booking");
-		} catch (ExceptionInInitializerError e) {
-			// Print an error to the console and then exit the JVM if a
-			// class fails to load.
-			// We exit the JVM as continuing to run might run the risk of
-			// corrupting data for
-			// bookings, clients or rooms.
-			Output.consoleError("An exception is being thrown in a static initializer");
-			e.printStackTrace();
-			System.exit(-1);
-		} catch (ClassNotFoundException e) { //Unlikely to happen, but best to catch it anyway just incase
-			Output.consoleError("One of the classes is missing - exiting");
-			e.printStackTrace();
-			System.exit(-1);
-		} catch(Exception e ) {
-			Output.consoleError("Couldn't load one of the classes!");
-			System.exit(-1);
-		}
+		load("clients.Client");
+		load("rooms.Room");
+		load("bookings.Booking", "reports.Utilization");
+	}
+
+	/**
+	 * Loads classes one after another on a new thread
+	 */
+	private static void load(String... classes) {
+		Thread loader = new Thread(() -> {
+			try {
+				for (String name : classes) {
+					Class.forName(name);
+				}
+			} catch (ExceptionInInitializerError e) {
+				// Print an error to the console and then exit the JVM if a
+				// class fails to load.
+				// We exit the JVM as continuing to run might run the risk of
+				// corrupting data for
+				// bookings, clients or rooms.
+				Output.consoleError("An exception is being thrown in a static initializer");
+				e.printStackTrace();
+				System.exit(-1);
+			} catch (ClassNotFoundException e) { //Unlikely to happen, but best to catch it anyway just incase
+				Output.consoleError("One of the classes is missing - exiting");
+				e.printStackTrace();
+				System.exit(-1);
+			} catch(Exception e ) {
+				Output.consoleError("Couldn't load one of the classes!");
+				System.exit(-1);
+			}
+		}, "load-" + classes[0]);
+		loader.start();
 	}
 
 	public static void main(String[] args) {
-		showMenu();
+		// "report" writes reports, "serve" runs the booking server,
+		// "loadtest" puts a booking server under load, "replay" runs a
+		// made up workload through the system and "stress" checks that
+		// racing threads never book a room twice, all without showing any
+		// windows. See BatchReport, BookingServer, LoadTest, Replay and
+		// StressTest for their options.
+		String command = args.length > 0 ? args[0] : "";
+		String[] options = args.length > 0 ? Arrays.copyOfRange(args, 1, args.length) : args;
+		switch (command) {
+		case "report":
+			System.setProperty("java.awt.headless", "true");
+			System.exit(BatchReport.run(options));
+			break;
+		case "serve":
+			System.setProperty("java.awt.headless", "true");
+			Runtime.getRuntime().addShutdownHook(new Thread(Utilization::save));
+			int code = BookingServer.run(options);
+			if (code != 0) {
+				System.exit(code);
+			}
+			return;
+		case "loadtest":
+			System.setProperty("java.awt.headless", "true");
+			System.exit(LoadTest.run(options));
+			break;
+		case "replay":
+			System.setProperty("java.awt.headless", "true");
+			System.exit(Replay.run(options));
+			break;
+		case "stress":
+			System.setProperty("java.awt.headless", "true");
+			System.exit(StressTest.run(options));
+			break;
+		default:
+			showMenu();
+		}
 	}
 
 	private static void showMenu() {
@@ -70,7 +126,7 @@ public class Main {
 				break;
 			// TODO better exiting of the program
 			case "Cancel Booking":
-				Booking.cancelBooking(JOptionPane.showInputDialog("Enter booking ID"));
+				cancelBooking();
 				break;
 			case "Generate Report":
 				try {
@@ -79,9 +135,11 @@ public class Main {
 					JOptionPane.showMessageDialog(null, "Report could not be generated");
 					e.printStackTrace();
 				}
+				break;
 			case "Exit":
 			default:
 				Output.console("Exiting...");
+				Utilization.save();
 				System.exit(0);
 			}
 		} while (true);
@@ -100,6 +158,17 @@ public class Main {
 	}
 
 	private static Booking cancelBooking() {
-		return null;
+		String id = JOptionPane.showInputDialog("Enter booking ID");
+		if (id == null || id.isBlank()) {
+			return null;
+		}
+
+		Booking b = Booking.findBooking(id.trim());
+		if (b == null || !Booking.cancelBooking(b.getID())) {
+			Output.userError("There is no booking with the ID " + id.trim());
+			return null;
+		}
+		Output.console("Cancelled booking %s", b.getID());
+		return b;
 	}
 }
@@ -1,32 +1,78 @@
 package ui;
 
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
-
 import javax.swing.JOptionPane;
 
+/**
+ * Messages for the console and the user.
+ * <p>
+ * Console messages are written by a background thread, see {@link AsyncLog},
+ * so they cost little wherever they are logged from. Two system properties
+ * change how:
+ * <ul>
+ * <li>{@code output.level}: the least important level written, one of
+ * DEBUG, INFO (the default), WARN or ERROR</li>
+ * <li>{@code output.overflow}: what happens to an INFO or DEBUG message when
+ * too many are waiting to be written, either {@code drop} (the default) or
+ * {@code block} to wait. Warnings and errors always wait.</li>
+ * </ul>
+ */
 public class Output {
-	private static DateTimeFormatter dtf;
-	
-	//// Output to console////
-	private static String nowf() {
-		if(dtf == null) {
-			dtf = DateTimeFormatter.ofPattern("HH:mm:ss");
-		}
-	
-		return LocalTime.now().format(dtf);
+	public enum Level {
+		DEBUG, INFO, WARN, ERROR
+	}
+
+	private static final AsyncLog log   = new AsyncLog(8192);
+	private static final boolean  block = "block".equalsIgnoreCase(System.getProperty("output.overflow"));
+	private static volatile Level level = parseLevel(System.getProperty("output.level"));
+
+	//// Output to console////
+	/**
+	 * Sets the least important level of message written to the console
+	 */
+	public static void setLevel(Level level) {
+		Output.level = level;
+	}
+
+	public static boolean isEnabled(Level level) {
+		return level.compareTo(Output.level) >= 0;
 	}
 
 	public static void console(String message, Object... args) {
-		System.out.printf("[" + nowf() + "] " + message + "\n", args);
+		console(Level.INFO, message, args);
+	}
+
+	public static void consoleDebug(String message, Object... args) {
+		console(Level.DEBUG, message, args);
 	}
 
 	public static void consoleWarn(String message, Object... args) {
-		console("[WARN] " + message, args);
+		console(Level.WARN, message, args);
 	}
 
 	public static void consoleError(String message, Object... args) {
-		console("[ERROR] " + message, args);
+		console(Level.ERROR, message, args);
+	}
+
+	public static void console(Level level, String message, Object... args) {
+		if (isEnabled(level)) {
+			log.log(level, block || level.compareTo(Level.WARN) >= 0, message, args);
+		}
+	}
+
+	/**
+	 * Waits until every console message so far has been written. They are
+	 * also all written when the JVM exits.
+	 */
+	public static void flush() {
+		log.flush();
+	}
+
+	private static Level parseLevel(String name) {
+		try {
+			return name == null ? Level.INFO : Level.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return Level.INFO;
+		}
 	}
 
 	//// Output to the user////
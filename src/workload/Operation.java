@@ -0,0 +1,116 @@
+package workload;
+
+/**
+ * One step of a workload: adding a room, registering a client, asking for a
+ * booking or cancelling one. Operations refer to clients and bookings by
+ * their place in the workload rather than by ID, as the IDs are only known
+ * once the workload is replayed, and to days by how many days they are
+ * after the day the replay starts.
+ * <p>
+ * Each operation can be written as one line of text and read back, so a
+ * workload can be saved and replayed again later.
+ */
+public final class Operation {
+	public enum Kind {
+		ROOM, CLIENT, BOOK, CANCEL
+	}
+
+	final Kind    kind;
+	// ROOM: the room number, CLIENT: the client's number, BOOK: the client
+	// the booking is for, or -1, CANCEL: the number of the booking to cancel
+	final int     target;
+	final int     computers;
+	final int     breakoutSeats;
+	final boolean printer;
+	final boolean smartboard;
+	final int     day;
+	final int     minute;
+	final int     hours;
+
+	private Operation(Kind kind, int target, int computers, int breakoutSeats, boolean printer, boolean smartboard,
+			int day, int minute, int hours) {
+		this.kind = kind;
+		this.target = target;
+		this.computers = computers;
+		this.breakoutSeats = breakoutSeats;
+		this.printer = printer;
+		this.smartboard = smartboard;
+		this.day = day;
+		this.minute = minute;
+		this.hours = hours;
+	}
+
+	static Operation room(int roomNumber, int computers, int breakoutSeats, boolean printer, boolean smartboard) {
+		return new Operation(Kind.ROOM, roomNumber, computers, breakoutSeats, printer, smartboard, 0, 0, 0);
+	}
+
+	static Operation client(int client) {
+		return new Operation(Kind.CLIENT, client, 0, 0, false, false, 0, 0, 0);
+	}
+
+	/**
+	 * @param client
+	 *            Number of the client the booking is for, or -1
+	 * @param day
+	 *            Days after the first day of the replay
+	 * @param minute
+	 *            Minute of the day the booking starts
+	 */
+	static Operation book(int client, int computers, int breakoutSeats, boolean printer, boolean smartboard, int day,
+			int minute, int hours) {
+		return new Operation(Kind.BOOK, client, computers, breakoutSeats, printer, smartboard, day, minute, hours);
+	}
+
+	/**
+	 * @param booking
+	 *            Number of the booking to cancel, counting the BOOK
+	 *            operations from 0
+	 */
+	static Operation cancel(int booking) {
+		return new Operation(Kind.CANCEL, booking, 0, 0, false, false, 0, 0, 0);
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Reads an operation written by {@link #toString()}
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the line isn't an operation
+	 */
+	static Operation parse(String line) {
+		String[] f = line.trim().split("\\s+");
+		try {
+			switch (Kind.valueOf(f[0])) {
+			case ROOM:
+				return room(Integer.parseInt(f[1]), Integer.parseInt(f[2]), Integer.parseInt(f[3]),
+						Boolean.parseBoolean(f[4]), Boolean.parseBoolean(f[5]));
+			case CLIENT:
+				return client(Integer.parseInt(f[1]));
+			case BOOK:
+				return book(Integer.parseInt(f[1]), Integer.parseInt(f[2]), Integer.parseInt(f[3]),
+						Boolean.parseBoolean(f[4]), Boolean.parseBoolean(f[5]), Integer.parseInt(f[6]),
+						Integer.parseInt(f[7]), Integer.parseInt(f[8]));
+			default:
+				return cancel(Integer.parseInt(f[1]));
+			}
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Not a workload operation: " + line);
+		}
+	}
+
+	@Override
+	public String toString() {
+		switch (kind) {
+		case ROOM:
+			return kind + " " + target + " " + computers + " " + breakoutSeats + " " + printer + " " + smartboard;
+		case BOOK:
+			return kind + " " + target + " " + computers + " " + breakoutSeats + " " + printer + " " + smartboard
+					+ " " + day + " " + minute + " " + hours;
+		default:
+			return kind + " " + target;
+		}
+	}
+}
@@ -0,0 +1,431 @@
+package workload;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import bookings.Booking;
+import bookings.BookingService;
+import bookings.NoRoomFoundException;
+import clients.Client;
+import clients.ExistingClientException;
+import metrics.Histogram;
+import rooms.ExistingRoomException;
+import ui.Output;
+
+/**
+ * Replays a workload through the booking service at a steady rate, and
+ * reports how it kept up: each second the operations done, the latency
+ * percentiles, the share of bookings turned down for want of a room, the
+ * operations waiting and the heap in use, then a summary for each kind of
+ * operation at the end.
+ * <p>
+ * Operations are started on schedule by one thread and done by a pool of
+ * workers, apart from adding rooms and clients, which the scheduling thread
+ * does itself so that they are always in place before the bookings that
+ * follow them. Latency is measured from when an operation was due to
+ * start, not from when a worker got to it, so time spent waiting behind
+ * slow operations counts.
+ * <p>
+ * The rooms, clients and bookings go into the stores in the working
+ * folder, or {@code data.dir}, so it is best run against an empty one.
+ *
+ * <pre>
+ * ui.Main replay [--seed N] [--rate OPS/S] [--seconds N] [--threads N]
+ *                [--rooms N] [--clients N] [--ops-per-day N]
+ *                [--start yyyy-mm-dd] [--save FILE | --from FILE]
+ * </pre>
+ *
+ * {@code --save} writes the workload to a file as it is replayed, and
+ * {@code --from} replays a saved one instead of making a new one.
+ */
+public final class Replay {
+	private static final Operation.Kind[] KINDS = Operation.Kind.values();
+
+	// Days of the workload count from this date
+	private final LocalDate                           start;
+	// Clients by their number in the workload, and the IDs of the bookings
+	// made by their number
+	private final ConcurrentHashMap<Integer, Client>  clients   = new ConcurrentHashMap<Integer, Client>();
+	private final ConcurrentHashMap<Integer, String>  bookings  = new ConcurrentHashMap<Integer, String>();
+
+	private final Histogram[]                         latencies = new Histogram[KINDS.length];
+	private final Histogram                           all       = new Histogram();
+	private final LongAdder[]                         done      = new LongAdder[KINDS.length];
+	// Bookings turned down for want of a room, operations that found
+	// nothing to do (a room or client that already exists, a booking for
+	// a client never added, or a cancellation of a booking that was never
+	// made), and operations that failed unexpectedly
+	private final LongAdder                           rejected  = new LongAdder();
+	private final LongAdder                           skipped   = new LongAdder();
+	private final LongAdder                           failed    = new LongAdder();
+	private final LongAdder                           finished  = new LongAdder();
+
+	private final MemoryMXBean                        memory    = ManagementFactory.getMemoryMXBean();
+	private long                                      peakHeap;
+
+	private Replay(LocalDate start) {
+		this.start = start;
+		for (int i = 0; i < KINDS.length; i++) {
+			latencies[i] = new Histogram();
+			done[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Replays a workload from the command line
+	 *
+	 * @return 0 if every operation ran, 1 if any failed unexpectedly, or 2
+	 *         if the arguments were wrong
+	 */
+	public static int run(String[] args) {
+		long seed = 1;
+		double rate = 500;
+		int seconds = 30;
+		int threads = 4;
+		int rooms = 100;
+		int clients = 1000;
+		int opsPerDay = 2000;
+		LocalDate start = LocalDate.now().plusDays(1);
+		Path save = null;
+		Path from = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException(args[i] + " needs a value");
+				}
+				switch (args[i]) {
+				case "--seed":
+					seed = Long.parseLong(args[++i]);
+					break;
+				case "--rate":
+					rate = Double.parseDouble(args[++i]);
+					break;
+				case "--seconds":
+					seconds = Integer.parseInt(args[++i]);
+					break;
+				case "--threads":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				case "--rooms":
+					rooms = Integer.parseInt(args[++i]);
+					break;
+				case "--clients":
+					clients = Integer.parseInt(args[++i]);
+					break;
+				case "--ops-per-day":
+					opsPerDay = Integer.parseInt(args[++i]);
+					break;
+				case "--start":
+					start = LocalDate.parse(args[++i]);
+					break;
+				case "--save":
+					save = Paths.get(args[++i]);
+					break;
+				case "--from":
+					from = Paths.get(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+			if (rate <= 0 || seconds < 1 || threads < 1) {
+				throw new IllegalArgumentException("The rate, seconds and threads must be more than 0");
+			}
+			if (save != null && from != null) {
+				throw new IllegalArgumentException("Only one of --save and --from can be given");
+			}
+		} catch (RuntimeException e) {
+			Output.consoleError(e.getMessage());
+			Output.consoleError("Usage: replay [--seed N] [--rate OPS/S] [--seconds N] [--threads N] [--rooms N]"
+					+ " [--clients N] [--ops-per-day N] [--start yyyy-mm-dd] [--save FILE | --from FILE]");
+			return 2;
+		}
+
+		try {
+			Replay replay = new Replay(start);
+			if (from != null) {
+				try (BufferedReader in = Files.newBufferedReader(from, StandardCharsets.UTF_8)) {
+					return replay.drive(in.lines().filter(l -> !l.isBlank()).map(Operation::parse).iterator(), -1,
+							rate, seconds, threads, null);
+				}
+			}
+
+			WorkloadGenerator workload = new WorkloadGenerator(seed, rooms, clients, opsPerDay);
+			if (save == null) {
+				return replay.drive(workload, workload.setupSize(), rate, seconds, threads, null);
+			}
+			try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(save, StandardCharsets.UTF_8))) {
+				return replay.drive(workload, workload.setupSize(), rate, seconds, threads, out);
+			}
+		} catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+			Output.consoleError("Replay failed: %s", e.getMessage());
+			return 1;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 1;
+		}
+	}
+
+	/**
+	 * Does the setup operations straight away, then the rest on schedule
+	 * until the time is up or the workload runs out
+	 *
+	 * @param setup
+	 *            Operations at the start to do straight away, or -1 for
+	 *            every ROOM and CLIENT operation at the start
+	 * @param save
+	 *            Where to write each operation, can be null
+	 */
+	private int drive(Iterator<Operation> ops, int setup, double rate, int seconds, int threads, PrintWriter save)
+			throws InterruptedException {
+		long t0 = System.nanoTime();
+		int count = 0;
+		Operation next = null;
+		while (ops.hasNext()) {
+			Operation op = ops.next();
+			boolean isSetup = setup < 0 ? op.kind == Operation.Kind.ROOM || op.kind == Operation.Kind.CLIENT
+					: count < setup;
+			if (!isSetup) {
+				next = op;
+				break;
+			}
+			write(save, op);
+			apply(op, -1, System.nanoTime());
+			count++;
+		}
+		Output.console("Added the first rooms and clients, %s operations, in %.1fs", count,
+				(System.nanoTime() - t0) / 1e9);
+		reset();
+
+		ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "replay-worker");
+			t.setDaemon(true);
+			return t;
+		});
+		Output.console("Replaying %.0f operations a second on %s threads for %ss", rate, threads, seconds);
+
+		long begin = System.nanoTime();
+		long end = begin + seconds * 1_000_000_000L;
+		long nextReport = begin + 1_000_000_000L;
+		Interval interval = new Interval();
+		long submitted = 0;
+		int booking = 0;
+		while (next != null) {
+			long due = begin + (long) (submitted * 1e9 / rate);
+			if (due >= end) {
+				break;
+			}
+			long now;
+			while ((now = System.nanoTime()) < due || now >= nextReport) {
+				if (now >= nextReport) {
+					interval.report(now - begin, submitted);
+					nextReport += 1_000_000_000L;
+				} else {
+					LockSupport.parkNanos(Math.min(due, nextReport) - now);
+				}
+			}
+
+			Operation op = next;
+			int number = op.kind == Operation.Kind.BOOK ? booking++ : -1;
+			write(save, op);
+			if (op.kind == Operation.Kind.ROOM || op.kind == Operation.Kind.CLIENT) {
+				// Done here rather than by a worker, so every later
+				// operation finds the room or client already added
+				apply(op, number, due);
+			} else {
+				workers.execute(() -> apply(op, number, due));
+			}
+			submitted++;
+			next = ops.hasNext() ? ops.next() : null;
+		}
+
+		workers.shutdown();
+		while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+			interval.report(System.nanoTime() - begin, submitted);
+		}
+		double elapsed = (System.nanoTime() - begin) / 1e9;
+		if (next == null) {
+			Output.consoleWarn("The workload ran out after %s operations", submitted);
+		}
+		summarise(elapsed);
+		return failed.sum() == 0 ? 0 : 1;
+	}
+
+	private static void write(PrintWriter save, Operation op) {
+		if (save != null) {
+			save.println(op);
+		}
+	}
+
+	/**
+	 * Does one operation and records how long after it was due it finished
+	 *
+	 * @param number
+	 *            Number of the booking, for BOOK operations
+	 * @param due
+	 *            When it was due to start, from {@link System#nanoTime}
+	 */
+	private void apply(Operation op, int number, long due) {
+		try {
+			switch (op.kind) {
+			case ROOM:
+				BookingService.addRoom(op.target, op.computers, op.breakoutSeats, op.smartboard, op.printer);
+				break;
+			case CLIENT:
+				Client c;
+				try {
+					c = BookingService.addClient("Workload", "Client " + op.target, String.format("07%09d", op.target),
+							"client" + op.target + "@workload.example");
+				} catch (ExistingClientException e) {
+					c = e.getExisting();
+					skipped.increment();
+				}
+				clients.put(op.target, c);
+				break;
+			case BOOK:
+				Client client = op.target < 0 ? null : clients.get(op.target);
+				if (op.target >= 0 && client == null) {
+					// The workload never added the client
+					skipped.increment();
+					break;
+				}
+				Booking b = BookingService.book(op.computers, op.breakoutSeats, op.printer, op.smartboard,
+						start.plusDays(op.day), LocalTime.of(op.minute / 60, op.minute % 60), op.hours, client);
+				bookings.put(number, b.getID());
+				break;
+			case CANCEL:
+				String id = bookings.remove(op.target);
+				if (id == null || !BookingService.cancel(id)) {
+					skipped.increment();
+				}
+				break;
+			}
+		} catch (NoRoomFoundException e) {
+			rejected.increment();
+		} catch (ExistingRoomException e) {
+			skipped.increment();
+		} catch (RuntimeException e) {
+			if (failed.sum() == 0) {
+				Output.consoleError("%s failed: %s", op, e);
+			}
+			failed.increment();
+		}
+
+		long latency = System.nanoTime() - due;
+		latencies[op.kind.ordinal()].add(latency);
+		all.add(latency);
+		done[op.kind.ordinal()].increment();
+		finished.increment();
+	}
+
+	/**
+	 * Forgets what was recorded during the setup
+	 */
+	private void reset() {
+		for (int i = 0; i < KINDS.length; i++) {
+			latencies[i].clear();
+			done[i].reset();
+		}
+		all.clear();
+		rejected.reset();
+		skipped.reset();
+		failed.reset();
+		finished.reset();
+	}
+
+	private long heap() {
+		long used = memory.getHeapMemoryUsage().getUsed();
+		peakHeap = Math.max(peakHeap, used);
+		return used;
+	}
+
+	/**
+	 * Reports on the operations done since the last report
+	 */
+	private final class Interval {
+		private long[] lastCounts = all.counts();
+		private long   lastFinished;
+		private long   lastBooks;
+		private long   lastRejected;
+
+		void report(long sinceStart, long submitted) {
+			long[] counts = all.counts();
+			long n = 0;
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] -= lastCounts[i];
+				n += counts[i];
+			}
+			lastCounts = all.counts();
+
+			long finishedNow = finished.sum();
+			long books = done[Operation.Kind.BOOK.ordinal()].sum();
+			long rejectedNow = rejected.sum();
+			Output.console("%4ds %7d ops/s  p50 %8.3fms  p99 %8.3fms  rejected %5.1f%%  waiting %6d  heap %5dMB",
+					Math.round(sinceStart / 1e9), finishedNow - lastFinished,
+					Histogram.percentile(counts, n, 0.50) / 1e6, Histogram.percentile(counts, n, 0.99) / 1e6,
+					percent(rejectedNow - lastRejected, books - lastBooks), submitted - finishedNow,
+					heap() >> 20);
+			lastFinished = finishedNow;
+			lastBooks = books;
+			lastRejected = rejectedNow;
+		}
+	}
+
+	private void summarise(double elapsed) {
+		Output.console("%-8s %9s %9s %9s %9s %9s %9s %9s", "", "count", "ops/s", "p50 ms", "p90 ms", "p99 ms",
+				"p99.9 ms", "max ms");
+		for (int i = 0; i < KINDS.length; i++) {
+			summarise(KINDS[i].name().toLowerCase(), latencies[i].counts(), elapsed);
+		}
+		summarise("all", all.counts(), elapsed);
+
+		long books = done[Operation.Kind.BOOK.ordinal()].sum();
+		long gcs = 0;
+		long gcMillis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcs += Math.max(0, gc.getCollectionCount());
+			gcMillis += Math.max(0, gc.getCollectionTime());
+		}
+		Output.console("%s of %s bookings rejected with no room found (%.1f%%), %s operations skipped, %s failed",
+				rejected.sum(), books, percent(rejected.sum(), books), skipped.sum(), failed.sum());
+		Output.console("Heap %sMB now, %sMB at most; %s collections took %sms in all", heap() >> 20,
+				peakHeap >> 20, gcs, gcMillis);
+	}
+
+	private static void summarise(String name, long[] counts, double elapsed) {
+		long n = 0;
+		for (int i = 0; i < counts.length; i++) {
+			n += counts[i];
+		}
+		if (n == 0) {
+			Output.console("%-8s %9d", name, 0);
+			return;
+		}
+		Output.console("%-8s %9d %9.0f %9.3f %9.3f %9.3f %9.3f %9.3f", name, n, n / elapsed,
+				Histogram.percentile(counts, n, 0.50) / 1e6, Histogram.percentile(counts, n, 0.90) / 1e6,
+				Histogram.percentile(counts, n, 0.99) / 1e6, Histogram.percentile(counts, n, 0.999) / 1e6,
+				Histogram.percentile(counts, n, 1.0) / 1e6);
+	}
+
+	private static double percent(long part, long whole) {
+		return whole == 0 ? 0 : 100.0 * part / whole;
+	}
+}
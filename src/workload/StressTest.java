@@ -0,0 +1,279 @@
+package workload;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import bookings.Booking;
+import bookings.BookingService;
+import bookings.NoRoomFoundException;
+import rooms.ExistingRoomException;
+import ui.Output;
+
+/**
+ * Races many threads booking and cancelling the same few rooms, and checks
+ * that no room was ever booked twice for the same time. Each round runs the
+ * same number of operations on more threads, and reports how many it did a
+ * second.
+ * <p>
+ * Rooms are first added by every thread of the largest round at once, to
+ * check that each room number is only added once. Then in each round every
+ * thread books the best fitting room at a random time over a few days, and
+ * cancels one of its own bookings a quarter of the time. After each round
+ * the bookings of every room are checked for overlaps, and the IDs handed
+ * out for uniqueness.
+ * <p>
+ * The rooms and bookings go into the stores in the working folder, or
+ * {@code data.dir}, so it is best run against an empty one.
+ *
+ * <pre>
+ * ui.Main stress [--threads 1,2,4,...] [--ops N] [--rooms N] [--days N]
+ * </pre>
+ */
+public final class StressTest {
+	// Rooms added by the stress test start at this number, to keep clear
+	// of rooms numbered by hand
+	private static final int FIRST_ROOM = 9000;
+
+	private final LocalDate                          start      = LocalDate.now().plusDays(1);
+	private final int                                rooms;
+	private final int                                days;
+	// Every booking ID handed out, to find any handed out twice
+	private final ConcurrentHashMap<String, Boolean> ids        = new ConcurrentHashMap<String, Boolean>();
+	private final LongAdder                          duplicates = new LongAdder();
+	// Operations that threw something unexpected
+	private final LongAdder                          failed     = new LongAdder();
+
+	private StressTest(int rooms, int days) {
+		this.rooms = rooms;
+		this.days = days;
+	}
+
+	/**
+	 * Runs the stress test from the command line
+	 *
+	 * @return 0 if nothing was booked twice, 1 if anything was, or 2 if the
+	 *         arguments were wrong
+	 */
+	public static int run(String[] args) {
+		int[] threads = { 1, 2, 4, 8, 16, 32, 64 };
+		int ops = 40_000;
+		int rooms = 50;
+		int days = 3;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException(args[i] + " needs a value");
+				}
+				switch (args[i]) {
+				case "--threads":
+					String[] counts = args[++i].split(",");
+					threads = new int[counts.length];
+					for (int t = 0; t < counts.length; t++) {
+						threads[t] = Integer.parseInt(counts[t].trim());
+					}
+					break;
+				case "--ops":
+					ops = Integer.parseInt(args[++i]);
+					break;
+				case "--rooms":
+					rooms = Integer.parseInt(args[++i]);
+					break;
+				case "--days":
+					days = Integer.parseInt(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+			for (int t : threads) {
+				if (t < 1) {
+					throw new IllegalArgumentException("The thread counts must be more than 0");
+				}
+			}
+			if (ops < 1 || rooms < 1 || days < 1) {
+				throw new IllegalArgumentException("The ops, rooms and days must be more than 0");
+			}
+		} catch (RuntimeException e) {
+			Output.consoleError(e.getMessage());
+			Output.consoleError("Usage: stress [--threads 1,2,4,...] [--ops N] [--rooms N] [--days N]");
+			return 2;
+		}
+
+		try {
+			return new StressTest(rooms, days).stress(threads, ops);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 1;
+		}
+	}
+
+	private int stress(int[] threads, int ops) throws InterruptedException {
+		int most = 1;
+		for (int t : threads) {
+			most = Math.max(most, t);
+		}
+
+		boolean ok = addRooms(most);
+		Output.console("%8s %10s %10s %10s %10s", "threads", "ops/s", "booked", "no room", "cancelled");
+		for (int t : threads) {
+			ok &= round(t, ops);
+		}
+
+		if (failed.sum() > 0) {
+			Output.consoleError("%s operations failed unexpectedly", failed.sum());
+			ok = false;
+		}
+		if (duplicates.sum() > 0) {
+			Output.consoleError("%s booking IDs were handed out more than once", duplicates.sum());
+			ok = false;
+		}
+		Output.console(ok ? "No room was booked twice" : "Stress test FAILED");
+		return ok ? 0 : 1;
+	}
+
+	/**
+	 * Has every thread try to add every room at once
+	 *
+	 * @return True if each room that didn't exist yet was added exactly once
+	 */
+	private boolean addRooms(int threads) throws InterruptedException {
+		int missing = 0;
+		for (int i = 0; i < rooms; i++) {
+			if (BookingService.findRoom(FIRST_ROOM + i) == null) {
+				missing++;
+			}
+		}
+
+		AtomicInteger added = new AtomicInteger();
+		race(threads, () -> {
+			for (int i = 0; i < rooms; i++) {
+				try {
+					BookingService.addRoom(FIRST_ROOM + i, i % 20, i % 5, false, false);
+					added.incrementAndGet();
+				} catch (ExistingRoomException e) {
+					// Another thread got there first
+				}
+			}
+		});
+
+		if (added.get() != missing) {
+			Output.consoleError("%s threads adding %s new rooms added %s", threads, missing, added.get());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Runs one round of bookings and cancellations on the given number of
+	 * threads, then checks for double bookings
+	 *
+	 * @return True if no room was booked twice
+	 */
+	private boolean round(int threads, int ops) throws InterruptedException {
+		LongAdder booked = new LongAdder();
+		LongAdder noRoom = new LongAdder();
+		LongAdder cancelled = new LongAdder();
+		AtomicInteger next = new AtomicInteger();
+
+		long t0 = System.nanoTime();
+		race(threads, () -> {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			ArrayList<String> made = new ArrayList<String>();
+			while (next.getAndIncrement() < ops) {
+				if (!made.isEmpty() && random.nextInt(4) == 0) {
+					if (BookingService.cancel(made.remove(random.nextInt(made.size())))) {
+						cancelled.increment();
+					}
+					continue;
+				}
+
+				try {
+					Booking b = BookingService.book(random.nextInt(20), random.nextInt(5), false, false,
+							start.plusDays(random.nextInt(days)), LocalTime.of(8 + random.nextInt(10), 0),
+							1 + random.nextInt(3), null);
+					if (ids.putIfAbsent(b.getID(), Boolean.TRUE) != null) {
+						duplicates.increment();
+					}
+					made.add(b.getID());
+					booked.increment();
+				} catch (NoRoomFoundException e) {
+					noRoom.increment();
+				}
+			}
+		});
+		double elapsed = (System.nanoTime() - t0) / 1e9;
+
+		Output.console("%8d %10.0f %10d %10d %10d", threads, ops / elapsed, booked.sum(), noRoom.sum(),
+				cancelled.sum());
+		return checkOverlaps();
+	}
+
+	/**
+	 * Looks for two bookings of the same room which overlap
+	 *
+	 * @return True if there are none
+	 */
+	private static boolean checkOverlaps() {
+		Map<Integer, List<Booking>> byRoom = new HashMap<Integer, List<Booking>>();
+		for (Booking b : Booking.allBookings()) {
+			byRoom.computeIfAbsent(b.getRoomNumber(), r -> new ArrayList<Booking>()).add(b);
+		}
+
+		int overlaps = 0;
+		for (List<Booking> list : byRoom.values()) {
+			list.sort((a, b) -> Long.compare(startMinute(a), startMinute(b)));
+			for (int i = 1; i < list.size(); i++) {
+				Booking before = list.get(i - 1);
+				Booking after = list.get(i);
+				if (startMinute(after) < startMinute(before) + before.getLength() * 60L) {
+					Output.consoleError("Room %s is double booked by %s and %s", after.getRoomNumber(),
+							before.getID(), after.getID());
+					overlaps++;
+				}
+			}
+		}
+		return overlaps == 0;
+	}
+
+	private static long startMinute(Booking b) {
+		return b.getDate().toEpochDay() * 24 * 60 + b.getTime().toSecondOfDay() / 60;
+	}
+
+	/**
+	 * Runs a task on the given number of threads, all let go at once, and
+	 * waits for them all to finish
+	 */
+	private void race(int threads, Runnable task) throws InterruptedException {
+		CountDownLatch go = new CountDownLatch(1);
+		List<Thread> started = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			Thread t = new Thread(() -> {
+				try {
+					go.await();
+					task.run();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (RuntimeException e) {
+					failed.increment();
+					e.printStackTrace();
+				}
+			}, "stress-" + i);
+			started.add(t);
+			t.start();
+		}
+
+		go.countDown();
+		for (Thread t : started) {
+			t.join();
+		}
+	}
+}
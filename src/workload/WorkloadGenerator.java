@@ -0,0 +1,188 @@
+package workload;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Makes an endless workload from a seed: the same seed and settings always
+ * give the same operations in the same order.
+ * <p>
+ * The workload starts by adding the rooms and registering the first
+ * clients, see {@link #setupSize()}. After that about 2% of the operations
+ * register a new client, 0.2% add a room, 15% cancel an earlier booking
+ * that hasn't been cancelled yet, and the rest ask for a booking.
+ * <p>
+ * Bookings are asked for as if time passes while the workload runs, a day
+ * for every {@code opsPerDay} operations, so the calendar doesn't fill up
+ * at the start. Most bookings are for the next week, for one or two hours
+ * in the morning or early afternoon, and need few computers and no other
+ * equipment.
+ */
+public final class WorkloadGenerator implements Iterator<Operation> {
+	private static final double CLIENT_SHARE = 0.02;
+	private static final double ROOM_SHARE   = 0.002;
+	private static final double CANCEL_SHARE = 0.15;
+
+	// How likely a booking is to start in each hour from 8am to 5pm
+	private static final int[]  HOUR_WEIGHTS = { 4, 10, 12, 8, 4, 9, 10, 7, 4, 2 };
+	private static final int    FIRST_HOUR   = 8;
+
+	private final Random random;
+	private final int    rooms;
+	private final int    clients;
+	private final int    opsPerDay;
+
+	private int          nextRoom   = 1;
+	private int          nextClient;
+	private int          bookings;
+	// Operations made after the setup, to work out the current day
+	private long         made;
+	// Bookings that can still be cancelled, picked from at random
+	private int[]        open       = new int[1024];
+	private int          openCount;
+
+	/**
+	 * @param seed
+	 *            Seed for the random choices
+	 * @param rooms
+	 *            Rooms added at the start
+	 * @param clients
+	 *            Clients registered at the start
+	 * @param opsPerDay
+	 *            Operations that make up one day of bookings
+	 */
+	public WorkloadGenerator(long seed, int rooms, int clients, int opsPerDay) {
+		if (rooms < 1 || clients < 0 || opsPerDay < 1) {
+			throw new IllegalArgumentException("A workload needs at least one room and one operation a day");
+		}
+		this.random = new Random(seed);
+		this.rooms = rooms;
+		this.clients = clients;
+		this.opsPerDay = opsPerDay;
+	}
+
+	/**
+	 * @return Operations at the start that add the rooms and clients
+	 */
+	public int setupSize() {
+		return rooms + clients;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return true;
+	}
+
+	@Override
+	public Operation next() {
+		if (nextRoom <= rooms) {
+			return room();
+		}
+		if (nextClient < clients) {
+			return Operation.client(nextClient++);
+		}
+
+		int day = (int) (made++ / opsPerDay);
+		double pick = random.nextDouble();
+		if (pick < CLIENT_SHARE) {
+			return Operation.client(nextClient++);
+		}
+		if (pick < CLIENT_SHARE + ROOM_SHARE) {
+			return room();
+		}
+		if (pick < CLIENT_SHARE + ROOM_SHARE + CANCEL_SHARE && openCount > 0) {
+			int i = random.nextInt(openCount);
+			int booking = open[i];
+			open[i] = open[--openCount];
+			return Operation.cancel(booking);
+		}
+		return book(day);
+	}
+
+	/**
+	 * A room with about 0, 10, 20, 30 or 40 computers
+	 */
+	private Operation room() {
+		int computers = random.nextInt(5) * 10;
+		if (computers > 0) {
+			computers += random.nextInt(5) - 2;
+		}
+		return Operation.room(nextRoom++, computers, random.nextInt(9), random.nextInt(2) == 0,
+				random.nextInt(5) < 2);
+	}
+
+	private Operation book(int today) {
+		if (openCount == open.length) {
+			open = Arrays.copyOf(open, openCount * 2);
+		}
+		open[openCount++] = bookings++;
+
+		int client = nextClient > 0 && random.nextInt(10) > 0 ? random.nextInt(nextClient) : -1;
+		return Operation.book(client, computers(), random.nextBoolean() ? 0 : 1 + random.nextInt(6),
+				random.nextInt(5) == 0, random.nextInt(10) < 3, today + leadDays(), startMinute(), hours());
+	}
+
+	/**
+	 * 35% need no computers, 30% 1 to 10, 25% 11 to 20 and 10% 21 to 30
+	 */
+	private int computers() {
+		int pick = random.nextInt(100);
+		if (pick < 35) {
+			return 0;
+		}
+		if (pick < 65) {
+			return 1 + random.nextInt(10);
+		}
+		if (pick < 90) {
+			return 11 + random.nextInt(10);
+		}
+		return 21 + random.nextInt(10);
+	}
+
+	/**
+	 * A quarter of bookings are for today or tomorrow, half for later in
+	 * the week, and the rest up to three months ahead
+	 */
+	private int leadDays() {
+		int pick = random.nextInt(100);
+		if (pick < 25) {
+			return random.nextInt(2);
+		}
+		if (pick < 75) {
+			return 2 + random.nextInt(6);
+		}
+		if (pick < 95) {
+			return 8 + random.nextInt(23);
+		}
+		return 31 + random.nextInt(60);
+	}
+
+	/**
+	 * On the hour 70% of the time, on the half hour 20% and on a quarter
+	 * hour otherwise
+	 */
+	private int startMinute() {
+		int total = 0;
+		for (int w : HOUR_WEIGHTS) {
+			total += w;
+		}
+		int pick = random.nextInt(total);
+		int hour = 0;
+		while (pick >= HOUR_WEIGHTS[hour]) {
+			pick -= HOUR_WEIGHTS[hour++];
+		}
+
+		int minute = random.nextInt(10);
+		minute = minute < 7 ? 0 : minute < 9 ? 30 : random.nextBoolean() ? 15 : 45;
+		return (FIRST_HOUR + hour) * 60 + minute;
+	}
+
+	/**
+	 * Half of bookings are for 1 hour, 30% for 2, 15% for 3 and 5% for 4
+	 */
+	private int hours() {
+		int pick = random.nextInt(20);
+		return pick < 10 ? 1 : pick < 16 ? 2 : pick < 19 ? 3 : 4;
+	}
+}
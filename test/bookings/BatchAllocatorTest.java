@@ -0,0 +1,96 @@
+package bookings;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import rooms.Room;
+
+/**
+ * Placing batches of requests with {@link BatchAllocator}. The rooms all
+ * have a printer and a smartboard, and each test books a day of its own.
+ */
+class BatchAllocatorTest {
+	private static final LocalDate START = LocalDate.now().plusDays(30);
+
+	// Computers and breakout seats of each room
+	private static Room twoAndFive;
+	private static Room threeAndNone;
+	private static Room oneAndFive;
+
+	@BeforeAll
+	static void addRooms() throws Exception {
+		// Booking and Room load the stores in data.dir as soon as they are
+		// used
+		System.setProperty("data.dir", Files.createTempDirectory("data").toString());
+		twoAndFive = BookingService.addRoom(801, 2, 5, true, true);
+		threeAndNone = BookingService.addRoom(802, 3, 0, true, true);
+		oneAndFive = BookingService.addRoom(803, 1, 5, true, true);
+	}
+
+	private static BookingRequest request(int computers, int seats, int day, int hour, int hours) {
+		return new BookingRequest(computers, seats, true, true, START.plusDays(day), LocalTime.of(hour, 0), hours,
+				null);
+	}
+
+	@Test
+	void placesTheRequestWithFewestRoomsFirst() {
+		// The first fits any room, the second only those with seats, and
+		// the third only the one with three computers
+		Room[] rooms = BatchAllocator.allocate(Arrays.asList(request(1, 0, 0, 9, 2), request(1, 5, 0, 9, 2),
+				request(3, 0, 0, 9, 2)));
+
+		assertArrayEquals(new Room[] { twoAndFive, oneAndFive, threeAndNone }, rooms);
+	}
+
+	@Test
+	void sharesARoomBetweenRequestsAtDifferentTimes() {
+		Room[] rooms = BatchAllocator.allocate(Arrays.asList(request(1, 5, 1, 9, 2), request(1, 5, 1, 11, 2),
+				request(1, 5, 1, 10, 1)));
+
+		assertArrayEquals(new Room[] { oneAndFive, oneAndFive, twoAndFive }, rooms);
+	}
+
+	@Test
+	void movesARequestOutOfTheWay() throws Exception {
+		// Only the room with two computers and seats can take this, which
+		// leaves the first request below just the room with one computer
+		BookingService.book(2, 5, true, true, START.plusDays(2), LocalTime.of(9, 0), 1, null);
+
+		// The longer third request is placed before the second and takes
+		// the room with two computers, which the second needs once the
+		// first has the room with one. The third is moved to the room
+		// with three computers.
+		Room[] rooms = BatchAllocator.allocate(Arrays.asList(request(1, 5, 2, 9, 2), request(1, 5, 2, 10, 2),
+				request(2, 0, 2, 10, 3)));
+
+		assertArrayEquals(new Room[] { oneAndFive, twoAndFive, threeAndNone }, rooms);
+	}
+
+	@Test
+	void leavesOutWhatDoesntFit() {
+		Room[] rooms = BatchAllocator.allocate(Arrays.asList(request(3, 0, 3, 9, 1), request(3, 0, 3, 9, 1),
+				request(9, 0, 3, 9, 1)));
+
+		assertEquals(threeAndNone, rooms[0]);
+		assertNull(rooms[1]);
+		assertNull(rooms[2]);
+	}
+
+	@Test
+	void skipsRoomsAlreadyBooked() throws Exception {
+		BookingService.book(1, 5, true, true, START.plusDays(4), LocalTime.of(9, 0), 4, null);
+
+		Room[] rooms = BatchAllocator.allocate(Arrays.asList(request(1, 5, 4, 12, 1), request(1, 5, 4, 13, 1)));
+
+		assertArrayEquals(new Room[] { twoAndFive, oneAndFive }, rooms);
+	}
+}
@@ -0,0 +1,155 @@
+package bookings;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The {@link MappedBookingStore}, moving bookings over from the journaled
+ * store and back again
+ */
+class MappedBookingStoreTest {
+	private static final LocalDate DAY = LocalDate.of(2030, 3, 4);
+
+	private String journalPath;
+	private String mappedPath;
+
+	@BeforeAll
+	static void emptyDataFolder() throws Exception {
+		// Booking loads the stores in data.dir as soon as it is used
+		System.setProperty("data.dir", Files.createTempDirectory("data").toString());
+	}
+
+	@BeforeEach
+	void emptyFolder() throws Exception {
+		Path dir = Files.createTempDirectory("stores");
+		journalPath = dir.resolve("bookings.bin").toString();
+		mappedPath = dir.resolve("bookings.map").toString();
+	}
+
+	private JournalBookingStore journal(Map<String, Booking> bookings) {
+		return new JournalBookingStore(journalPath, bookings, () -> 0, legacy -> {});
+	}
+
+	private MappedBookingStore mapped(Map<String, Booking> bookings) {
+		return new MappedBookingStore(mappedPath, bookings, () -> 42, journal(bookings));
+	}
+
+	/**
+	 * Saves bookings in the journaled store, as an earlier run would have
+	 */
+	private void journaled(Booking... bookings) throws Exception {
+		JournalBookingStore store = journal(new HashMap<String, Booking>());
+		store.load();
+		store.putAll(Arrays.asList(bookings));
+	}
+
+	private static Booking booking(String id, int room, int hour) {
+		return new Booking(id, room, 3, DAY, LocalTime.of(hour, 30), 2);
+	}
+
+	private static void assertBooking(Booking b, String id, int room, int hour) {
+		assertEquals(id, b.getID());
+		assertEquals(room, b.getRoomNumber());
+		assertEquals(3, b.getClientID());
+		assertEquals(DAY, b.getDate());
+		assertEquals(LocalTime.of(hour, 30), b.getTime());
+		assertEquals(2, b.getLength());
+	}
+
+	@Test
+	void copiesTheJournalTheFirstTime() throws Exception {
+		journaled(booking("A", 101, 9), booking("B", 102, 13));
+
+		Map<String, Booking> bookings = new HashMap<String, Booking>();
+		assertFalse(MappedBookingStore.exists(mappedPath));
+		mapped(bookings).load();
+		assertTrue(MappedBookingStore.exists(mappedPath));
+		assertBooking(bookings.get("A"), "A", 101, 9);
+		assertBooking(bookings.get("B"), "B", 102, 13);
+
+		Map<String, Booking> reloaded = new HashMap<String, Booking>();
+		mapped(reloaded).load();
+		assertEquals(2, reloaded.size());
+		assertNotEquals(0, reloaded.get("A").slot, "read from the slot");
+		assertBooking(reloaded.get("A"), "A", 101, 9);
+		assertBooking(reloaded.get("B"), "B", 102, 13);
+	}
+
+	@Test
+	void cancelledBookingKeepsItsFieldsWhenItsSlotIsReused() throws Exception {
+		Map<String, Booking> bookings = new HashMap<String, Booking>();
+		MappedBookingStore store = mapped(bookings);
+		store.load();
+		Booking a = booking("A", 101, 9);
+		store.put(a);
+		int slot = a.slot;
+
+		assertEquals(a, store.remove("A"));
+		assertEquals(0, a.slot);
+		Booking b = booking("B", 202, 15);
+		store.put(b);
+
+		assertEquals(slot, b.slot, "slot reused");
+		assertBooking(a, "A", 101, 9);
+		assertBooking(b, "B", 202, 15);
+		assertEquals(Arrays.asList("B"), Arrays.asList(bookings.keySet().toArray()));
+	}
+
+	@Test
+	void copiesAgainWhenTheCopyWasCutShort() throws Exception {
+		journaled(booking("A", 101, 9));
+		// The header and a slot made it to disk, but not the magic number
+		// written last
+		byte[] partial = new byte[200];
+		Arrays.fill(partial, 4, partial.length, (byte) 1);
+		Files.write(Path.of(mappedPath), partial);
+		assertFalse(MappedBookingStore.exists(mappedPath));
+
+		Map<String, Booking> bookings = new HashMap<String, Booking>();
+		mapped(bookings).load();
+		assertEquals(1, bookings.size());
+		assertBooking(bookings.get("A"), "A", 101, 9);
+
+		Map<String, Booking> reloaded = new HashMap<String, Booking>();
+		mapped(reloaded).load();
+		assertEquals(bookings.keySet(), reloaded.keySet());
+	}
+
+	@Test
+	void handsChangesBackToTheJournal() throws Exception {
+		journaled(booking("A", 101, 9), booking("B", 102, 13));
+		MappedBookingStore store = mapped(new HashMap<String, Booking>());
+		store.load();
+		store.put(booking("C", 103, 16));
+		store.remove("A");
+
+		Map<String, Booking> bookings = new HashMap<String, Booking>();
+		long sequence = MappedBookingStore.handBack(mappedPath, bookings, journal(bookings));
+		assertEquals(42, sequence);
+		assertEquals(2, bookings.size());
+		assertBooking(bookings.get("B"), "B", 102, 13);
+		assertBooking(bookings.get("C"), "C", 103, 16);
+		assertFalse(MappedBookingStore.exists(mappedPath));
+		assertTrue(Files.exists(Path.of(mappedPath + ".old")));
+
+		Map<String, Booking> reloaded = new HashMap<String, Booking>();
+		journal(reloaded).load();
+		assertEquals(2, reloaded.size());
+		assertEquals(0, reloaded.get("C").slot);
+		assertBooking(reloaded.get("C"), "C", 103, 16);
+	}
+}
@@ -0,0 +1,152 @@
+package fileio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A {@link Journal} of "key=value" strings, loaded again into a new map
+ * after each change as it would be on the next start
+ */
+class JournalTest {
+	private String path;
+
+	// Keys a "key=value" string by the part before the '='
+	private static final class Codec implements RecordCodec<String, String> {
+		@Override
+		public short version() { return 1; }
+
+		@Override
+		public String keyOf(String value) { return value.substring(0, value.indexOf('=')); }
+
+		@Override
+		public int size(String value) { return RecordCodec.sizeOf(value); }
+
+		@Override
+		public void write(String value, ByteBuffer buf) { RecordCodec.putString(buf, value); }
+
+		@Override
+		public String read(ByteBuffer buf, short version) { return RecordCodec.getString(buf); }
+	}
+
+	@BeforeEach
+	void emptyFolder() throws IOException {
+		path = Files.createTempDirectory("journal").resolve("store.bin").toString();
+	}
+
+	private static Journal<String, String> open(String path, Map<String, String> map) throws Exception {
+		Journal<String, String> journal = new Journal<String, String>(path, map, new Codec(), () -> 7);
+		journal.load(legacy -> { throw new AssertionError("not a legacy file"); });
+		return journal;
+	}
+
+	private Map<String, String> reload() throws Exception {
+		Map<String, String> map = new HashMap<String, String>();
+		open(path, map);
+		return map;
+	}
+
+	private static Map<String, String> map(String... values) {
+		Map<String, String> map = new HashMap<String, String>();
+		for (String v : values) {
+			map.put(v.substring(0, v.indexOf('=')), v);
+		}
+		return map;
+	}
+
+	@Test
+	void replaysEveryChange() throws Exception {
+		Map<String, String> live = new HashMap<String, String>();
+		Journal<String, String> journal = open(path, live);
+		journal.put("a", "a=1");
+		journal.put("b", "b=2");
+		journal.putAll(Arrays.asList("c=3", "d=4"));
+		assertEquals("b=2", journal.remove("b"));
+		List<String> removed = journal.removeAll(Arrays.asList("c", "missing"));
+		journal.put("a", "a=5");
+
+		assertEquals(Arrays.asList("c=3"), removed);
+		assertEquals(map("a=5", "d=4"), live);
+		assertEquals(live, reload());
+	}
+
+	@Test
+	void foldsTheLogIntoTheSnapshot() throws Exception {
+		Journal<String, String> journal = open(path, new HashMap<String, String>());
+		for (int i = 0; i < 100; i++) {
+			journal.put("k" + i, "k" + i + "=" + i);
+		}
+		journal.remove("k0");
+
+		journal.compactSoon();
+		Path snapshot = Paths.get(path);
+		Path oldLog = Paths.get(path + ".log.old");
+		long give = System.currentTimeMillis() + 10_000;
+		while (Files.size(snapshot) == 0 || Files.exists(oldLog)) {
+			assertTrue(System.currentTimeMillis() < give, "compaction finished");
+			Thread.sleep(10);
+		}
+		journal.put("after", "after=1");
+
+		Map<String, String> loaded = new HashMap<String, String>();
+		RecordHeader header = open(path, loaded).load(legacy -> {});
+		assertEquals(100, loaded.size());
+		assertFalse(loaded.containsKey("k0"));
+		assertEquals("after=1", loaded.get("after"));
+		assertEquals(99, header.getCount(), "records in the snapshot");
+		assertEquals(7, header.getSequence());
+		assertTrue(Files.size(Paths.get(path + ".log")) < 100, "log started again");
+	}
+
+	@Test
+	void dropsARecordCutShortAndCarriesOn() throws Exception {
+		Journal<String, String> journal = open(path, new HashMap<String, String>());
+		journal.put("a", "a=1");
+		journal.put("b", "b=2");
+		Path log = Paths.get(path + ".log");
+		long good = Files.size(log);
+
+		// A record that says it is longer than what made it to disk
+		try (FileChannel ch = FileChannel.open(log, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			ch.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 20, 1, 0, 3, 'c' }));
+		}
+
+		Map<String, String> loaded = new HashMap<String, String>();
+		Journal<String, String> reopened = open(path, loaded);
+		assertEquals(map("a=1", "b=2"), loaded);
+		assertEquals(good, Files.size(log), "damaged record taken off");
+
+		reopened.put("c", "c=3");
+		assertEquals(map("a=1", "b=2", "c=3"), reload());
+	}
+
+	@Test
+	void leavesTheMapAloneWhenAValueCantBeWritten() throws Exception {
+		Map<String, String> live = new HashMap<String, String>();
+		Journal<String, String> journal = open(path, live);
+		journal.put("a", "a=1");
+		String huge = "h=" + "x".repeat(RecordCodec.MAX_STRING_BYTES);
+
+		assertThrows(IllegalArgumentException.class, () -> journal.put("h", huge));
+		assertThrows(IllegalArgumentException.class, () -> journal.putAll(Arrays.asList("b=2", huge)));
+
+		assertEquals(map("a=1"), live);
+		assertEquals(map("a=1"), reload());
+	}
+}
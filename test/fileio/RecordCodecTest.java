@@ -0,0 +1,61 @@
+package fileio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Strings written by {@link RecordCodec#putString} and read back by
+ * {@link RecordCodec#getString}
+ */
+class RecordCodecTest {
+	private static String roundTrip(String str) {
+		ByteBuffer buf = ByteBuffer.allocate(RecordCodec.sizeOf(str) + 8);
+		RecordCodec.putString(buf, str);
+		assertEquals(RecordCodec.sizeOf(str), buf.position(), "bytes written");
+		buf.putInt(42);
+
+		buf.flip();
+		String read = RecordCodec.getString(buf);
+		assertEquals(42, buf.getInt(), "whatever follows the string");
+		return read;
+	}
+
+	@Test
+	void readsBackWhatWasWritten() {
+		assertEquals("B2S", roundTrip("B2S"));
+		assertEquals("", roundTrip(""));
+		assertNull(roundTrip(null));
+	}
+
+	@Test
+	void countsTheUtf8BytesOfOtherCharacters() {
+		String name = "Zoë Åström 中文";
+		assertEquals(name, roundTrip(name));
+		assertEquals(2 + name.getBytes(java.nio.charset.StandardCharsets.UTF_8).length, RecordCodec.sizeOf(name));
+	}
+
+	@Test
+	void readsTheLongestStringThatFits() {
+		String str = "x".repeat(RecordCodec.MAX_STRING_BYTES);
+		assertEquals(str, roundTrip(str));
+	}
+
+	@Test
+	void refusesStringsTooLongForTheirLength() {
+		String ascii = "x".repeat(RecordCodec.MAX_STRING_BYTES + 1);
+		// Fits in chars, but not once each is 2 UTF-8 bytes
+		String wide = "é".repeat(RecordCodec.MAX_STRING_BYTES / 2 + 1);
+		ByteBuffer buf = ByteBuffer.allocate(4 * RecordCodec.MAX_STRING_BYTES);
+
+		assertThrows(IllegalArgumentException.class, () -> RecordCodec.sizeOf(ascii));
+		assertThrows(IllegalArgumentException.class, () -> RecordCodec.sizeOf(wide));
+		assertThrows(IllegalArgumentException.class, () -> RecordCodec.putString(buf, ascii));
+		assertThrows(IllegalArgumentException.class, () -> RecordCodec.putString(buf, wide));
+		assertEquals(0, buf.position(), "nothing written");
+	}
+}
@@ -0,0 +1,129 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import bookings.Booking;
+import bookings.BookingService;
+import clients.Client;
+
+/**
+ * Reading the filter of {@code DELETE /bookings} from the parameters of a
+ * request
+ */
+class BookingServerTest {
+	private static final LocalDate DAY = LocalDate.now().plusDays(30);
+
+	private static Client  client;
+	// Room 701 on the day, then the day after, then room 702 on the day
+	// for the client
+	private static Booking first;
+	private static Booking nextDay;
+	private static Booking otherRoom;
+
+	@BeforeAll
+	static void book() throws Exception {
+		// Booking, Room and Client load the stores in data.dir as soon as
+		// they are used
+		System.setProperty("data.dir", Files.createTempDirectory("data").toString());
+		BookingService.addRoom(701, 1, 0, false, false);
+		BookingService.addRoom(702, 2, 0, false, false);
+		client = BookingService.addClient("Ada", "Lovelace", "0123456789", "ada@example.com");
+		first = BookingService.book(1, 0, false, false, DAY, LocalTime.of(9, 0), 1, null);
+		nextDay = BookingService.book(1, 0, false, false, DAY.plusDays(1), LocalTime.of(9, 0), 1, null);
+		otherRoom = BookingService.book(1, 0, false, false, DAY, LocalTime.of(9, 0), 1, client);
+	}
+
+	private static Map<String, String> params(String... pairs) {
+		Map<String, String> params = new HashMap<String, String>();
+		for (int i = 0; i < pairs.length; i += 2) {
+			params.put(pairs[i], pairs[i + 1]);
+		}
+		return params;
+	}
+
+	private static void assertMatches(Predicate<Booking> filter, boolean first, boolean nextDay,
+			boolean otherRoom) {
+		assertEquals(first, filter.test(BookingServerTest.first), "first");
+		assertEquals(nextDay, filter.test(BookingServerTest.nextDay), "next day");
+		assertEquals(otherRoom, filter.test(BookingServerTest.otherRoom), "other room");
+	}
+
+	@Test
+	void bookedTheRoomsExpected() {
+		assertEquals(701, first.getRoomNumber());
+		assertEquals(701, nextDay.getRoomNumber());
+		assertEquals(702, otherRoom.getRoomNumber());
+	}
+
+	@Test
+	void needsAFilter() {
+		BookingServer.HttpError e = assertThrows(BookingServer.HttpError.class,
+				() -> BookingServer.cancelFilter(params()));
+		assertEquals(400, e.status);
+		assertThrows(BookingServer.HttpError.class, () -> BookingServer.cancelFilter(params("roomNumber", "701")));
+	}
+
+	@Test
+	void refusesANegativeRoom() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> BookingServer.cancelFilter(params("room", "-1")));
+		assertTrue(e.getMessage().contains("-1"), e.getMessage());
+	}
+
+	@Test
+	void refusesWhatIsntANumberOrADate() {
+		assertThrows(IllegalArgumentException.class, () -> BookingServer.cancelFilter(params("room", "abc")));
+		assertThrows(IllegalArgumentException.class, () -> BookingServer.cancelFilter(params("room", "")));
+		assertThrows(IllegalArgumentException.class, () -> BookingServer.cancelFilter(params("clientId", "x")));
+		assertThrows(IllegalArgumentException.class, () -> BookingServer.cancelFilter(params("from", "3/4/2030")));
+	}
+
+	@Test
+	void refusesAClientThatDoesntExist() {
+		BookingServer.HttpError e = assertThrows(BookingServer.HttpError.class,
+				() -> BookingServer.cancelFilter(params("clientId", "999999")));
+		assertEquals(404, e.status);
+	}
+
+	@Test
+	void matchesARoom() {
+		assertMatches(BookingServer.cancelFilter(params("room", "701")), true, true, false);
+		assertMatches(BookingServer.cancelFilter(params("room", "0")), false, false, false);
+	}
+
+	@Test
+	void matchesAClient() {
+		assertMatches(BookingServer.cancelFilter(params("clientId", Integer.toString(client.getID()))), false,
+				false, true);
+	}
+
+	@Test
+	void matchesDates() {
+		String day = DAY.toString();
+		assertMatches(BookingServer.cancelFilter(params("from", day, "to", day)), true, false, true);
+		assertMatches(BookingServer.cancelFilter(params("from", DAY.plusDays(1).toString())), false, true, false);
+		assertMatches(BookingServer.cancelFilter(params("to", DAY.minusDays(1).toString())), false, false, false);
+	}
+
+	@Test
+	void matchesEveryFilterGiven() {
+		Predicate<Booking> filter = BookingServer.cancelFilter(params("room", "701", "from",
+				DAY.plusDays(1).toString()));
+		assertMatches(filter, false, true, false);
+		assertFalse(BookingServer.cancelFilter(params("room", "702", "to", DAY.minusDays(1).toString()))
+				.test(otherRoom));
+	}
+}